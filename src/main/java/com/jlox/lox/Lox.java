@@ -1,48 +1,80 @@
 package com.jlox.lox;
 
+import com.jlox.lox.closure.ClosureCompiler;
 import com.jlox.lox.exception.RuntimeError;
 import com.jlox.lox.grammar.string.Expr;
 import com.jlox.lox.grammar.string.Stmt;
 import com.jlox.lox.grammar.token.Token;
 import com.jlox.lox.grammar.token.TokenType;
+import com.jlox.lox.helper.Engine;
+import com.jlox.lox.jvm.FunctionProfile;
 import com.jlox.lox.pipeline.Interpreter;
+import com.jlox.lox.pipeline.Optimizer;
 import com.jlox.lox.pipeline.Parser;
 import com.jlox.lox.pipeline.Resolver;
 import com.jlox.lox.pipeline.Scanner;
+import com.jlox.lox.pipeline.SourceText;
+import com.jlox.lox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
 
   //Successive calls to run() inside a REPL session will use the same interpreter
   private static final Interpreter interpreter = new Interpreter();
+  private static final ClosureCompiler closureCompiler = new ClosureCompiler();
+  private static final VM vm = new VM();
+  static Engine engine = Engine.INTERPRETER;
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
+  /**
+   * Usage: jlox [--engine=interpreter|closure|vm] [--jit-threshold=n] [--max-frames=n] [script]
+   * The threshold is the number of calls and loop iterations after which the interpreter compiles a function,
+   * 0 turns compilation off.
+   * The VM keeps its call frames on the heap : its recursion depth is only bounded by max-frames and memory,
+   * where the other engines recurse on the JVM's thread stack.
+   */
   public static void main(String... args) throws IOException {
-    if (args.length > 1) {
+    List<String> operands = new ArrayList<>();
+    engine = Engine.INTERPRETER;
+    FunctionProfile.setThreshold(FunctionProfile.DEFAULT_THRESHOLD);
+    VM.setMaxFrames(VM.DEFAULT_MAX_FRAMES);
+    for (String arg : args) {
+      if (arg.startsWith("--engine=")) {
+        engine = Engine.valueOf(arg.substring("--engine=".length()).toUpperCase());
+      } else if (arg.startsWith("--jit-threshold=")) {
+        FunctionProfile.setThreshold(Integer.parseInt(arg.substring("--jit-threshold=".length())));
+      } else if (arg.startsWith("--max-frames=")) {
+        VM.setMaxFrames(Integer.parseInt(arg.substring("--max-frames=".length())));
+      } else {
+        operands.add(arg);
+      }
+    }
+
+    if (operands.size() > 1) {
       System.exit(64); // exit codes the use conventions defined in the UNIX “sysexits.h” header
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    } else if (operands.size() == 1) {
+      runFile(operands.get(0));
     } else {
       runPrompt();
     }
   }
 
   /**
-   * Starting jlox from the CLI : reads the file and executes it.
+   * Starting jlox from the CLI : maps the file and executes it, the Scanner decoding it as it goes.
    */
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    SourceText source = SourceText.map(Paths.get(path), Charset.defaultCharset());
     if (hadError) System.exit(65);
     if (hadRuntimeError) System.exit(70);
-    run(new String(bytes, Charset.defaultCharset()));
+    run(new Scanner(source));
   }
 
   /**
@@ -63,21 +95,23 @@ public class Lox {
   }
 
   private static void runLineFromPrompt(String line) {
-    Scanner scanner = new Scanner(line);
-    List<Token> tokens = scanner.scanTokens();
-    if (hadError) return;
-
-    Parser parser = new Parser(tokens);
-    Resolver resolver = new Resolver(interpreter);
+    //The Parser pulls tokens from the Scanner : errors of both are reported as they are met
+    Parser parser = new Parser(new Scanner(line).tokens());
+    Resolver resolver = new Resolver();
     Object syntax = parser.parseREPL();
     if (hadError) return;
 
     if (syntax instanceof List statements) {
       resolver.resolve(statements);
       if (hadError) return;
-      interpreter.interpret(statements);
+      interpret(new Optimizer().optimize(statements));
     } else {
-      String result = interpreter.interpret((Expr) syntax);
+      Expr expr = new Optimizer().optimize((Expr) syntax);
+      String result = switch (engine) {
+        case INTERPRETER -> interpreter.interpret(expr);
+        case CLOSURE -> closureCompiler.interpret(expr);
+        case VM -> vm.interpret(expr);
+      };
       if (result != null) System.out.println(result);
     }
   }
@@ -85,20 +119,29 @@ public class Lox {
   /**
    * runFile() and runPrompt() are 'wrappers' around this core method.
    */
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    if (hadError) return;
-
-    Parser parser = new Parser(tokens);
+  private static void run(Scanner scanner) {
+    //The Parser pulls tokens from the Scanner : errors of both are reported as they are met
+    Parser parser = new Parser(scanner.tokens());
     List<Stmt> statements = parser.parse();
     if (hadError) return;
 
-    Resolver resolver = new Resolver(interpreter);
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
     if (hadError) return;
 
-    interpreter.interpret(statements);
+    //Folds constants once, rather than on every evaluation
+    interpret(new Optimizer().optimize(statements));
+  }
+
+  /**
+   * Hands the resolved program to the selected engine.
+   */
+  private static void interpret(List<Stmt> statements) {
+    switch (engine) {
+      case INTERPRETER -> interpreter.interpret(statements);
+      case CLOSURE -> closureCompiler.interpret(statements);
+      case VM -> vm.interpret(statements);
+    }
   }
 
   /**
@@ -125,8 +168,15 @@ public class Lox {
   }
 
   public static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-            "\n[line " + error.token.line() + "]");
+    runtimeError(error.getMessage(), error.token.line());
+  }
+
+  /**
+   * Used by the VM, which only knows the line of the failing instruction.
+   */
+  public static void runtimeError(String message, int line) {
+    System.err.println(message +
+            "\n[line " + line + "]");
     hadRuntimeError = true;
   }
 }
@@ -0,0 +1,91 @@
+package com.jlox.lox;
+
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.jvm.ScriptCompiler;
+import com.jlox.lox.pipeline.Optimizer;
+import com.jlox.lox.pipeline.Parser;
+import com.jlox.lox.pipeline.Resolver;
+import com.jlox.lox.pipeline.Scanner;
+import com.jlox.lox.pipeline.SourceText;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Ahead-of-time compiler : turns a Lox script into a runnable jar, once, instead of interpreting it on every run.
+ * The jar holds one class, named after the script, which needs the jlox classes on its classpath at run time :
+ * java -cp jlox.jar:Script.jar Script
+ */
+public class Loxc {
+
+  /**
+   * Usage: loxc script [output jar]
+   * Without an output path, the jar is written next to the script.
+   */
+  public static void main(String... args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: loxc <script> [output jar]");
+      System.exit(64);
+    }
+    Path script = Paths.get(args[0]);
+    String className = className(script);
+    Path output = args.length == 2 ? Paths.get(args[1]) : script.resolveSibling(className + ".jar");
+
+    Lox.hadError = false;
+    List<Stmt> statements = frontEnd(SourceText.map(script, Charset.defaultCharset()));
+    if (Lox.hadError) System.exit(65);
+
+    writeJar(output, className, ScriptCompiler.compile(className, statements));
+  }
+
+  /**
+   * The same front end the interpreter runs : the compiled script resolves variables exactly as it would.
+   */
+  private static List<Stmt> frontEnd(SourceText source) {
+    List<Stmt> statements = new Parser(new Scanner(source).tokens()).parse();
+    if (Lox.hadError) return List.of();
+
+    new Resolver().resolve(statements);
+    if (Lox.hadError) return List.of();
+    return new Optimizer().optimize(statements);
+  }
+
+  /**
+   * The script's file name without its extension, made into a valid Java class name.
+   */
+  static String className(Path script) {
+    String name = script.getFileName().toString();
+    int dot = name.indexOf('.');
+    if (dot > 0) name = name.substring(0, dot);
+
+    StringBuilder className = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    }
+    if (className.isEmpty() || !Character.isJavaIdentifierStart(className.charAt(0))) className.insert(0, '_');
+    className.setCharAt(0, Character.toUpperCase(className.charAt(0)));
+    return className.toString();
+  }
+
+  private static void writeJar(Path output, String className, byte[] classFile) throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+
+    try (OutputStream out = Files.newOutputStream(output);
+         JarOutputStream jar = new JarOutputStream(out, manifest)) {
+      jar.putNextEntry(new JarEntry(className + ".class"));
+      jar.write(classFile);
+      jar.closeEntry();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.TokenType;
+import com.jlox.lox.object.Environment;
+
+import static com.jlox.lox.helper.Values.isEqual;
+
+/**
+ * A '+', '==' or '!=' node : the operators whose operands may legally be of several types.
+ * The node records the operand types it has seen and specializes its fast path to them.
+ * While the guard holds, evaluation is a single pair of type checks and the primitive operation.
+ * When operands of another type show up, the node rewrites itself to the generic path for good.
+ * The other binary operators only accept numbers, so the ClosureCompiler already gives them a single fast path.
+ */
+final class BinaryNode implements ExprNode {
+
+  private static final int UNINITIALIZED = 0;
+  private static final int NUMBERS = 1;       //double op double
+  private static final int STRINGS = 2;       //string op string
+  private static final int STRING_NUMBER = 3; //string op double, only '+' concatenates those
+  private static final int GENERIC = 4;
+
+  private final ExprNode left;
+  private final ExprNode right;
+  private final Token operator;
+  private final TokenType type;
+  private int state = UNINITIALIZED;
+
+  BinaryNode(ExprNode left, Token operator, ExprNode right) {
+    this.left = left;
+    this.right = right;
+    this.operator = operator;
+    this.type = operator.type();
+  }
+
+  @Override
+  public Object evaluate(Environment environment) {
+    Object l = left.evaluate(environment);
+    Object r = right.evaluate(environment);
+
+    switch (state) {
+      case NUMBERS -> {
+        if (l instanceof Double a && r instanceof Double b) {
+          return switch (type) {
+            case PLUS -> a + b;
+            case EQUAL_EQUAL -> a.equals(b);
+            default -> !a.equals(b);
+          };
+        }
+      }
+      case STRINGS -> {
+        if (l instanceof String a && r instanceof String b) {
+          return switch (type) {
+            case PLUS -> a.concat(b);
+            case EQUAL_EQUAL -> a.equals(b);
+            default -> !a.equals(b);
+          };
+        }
+      }
+      case STRING_NUMBER -> {
+        if (l instanceof String a && r instanceof Double) return a + r;
+      }
+      case GENERIC -> {
+        return generic(l, r);
+      }
+      default -> {
+      }
+    }
+    return specialize(l, r);
+  }
+
+  /**
+   * The first evaluation picks a specialization, any later guard failure means the types mix.
+   */
+  private Object specialize(Object l, Object r) {
+    int observed = GENERIC;
+    if (l instanceof Double && r instanceof Double) {
+      observed = NUMBERS;
+    } else if (l instanceof String && r instanceof String) {
+      observed = STRINGS;
+    } else if (type == TokenType.PLUS && l instanceof String && r instanceof Double) {
+      observed = STRING_NUMBER;
+    }
+    state = state == UNINITIALIZED ? observed : GENERIC;
+    return generic(l, r);
+  }
+
+  private Object generic(Object l, Object r) {
+    return switch (type) {
+      case EQUAL_EQUAL -> isEqual(l, r);
+      case BANG_EQUAL -> !isEqual(l, r);
+      default -> { //Operator is overloaded
+        if (l instanceof Double a && r instanceof Double b) yield a + b;
+        if (l instanceof String s && (r instanceof Double || r instanceof String)) yield s + r;
+        throw new RuntimeError(operator, "Operands must be two numbers or left operand must be a String.");
+      }
+    };
+  }
+}
@@ -0,0 +1,72 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.LoxCallable;
+
+/**
+ * A call node that specializes to the kind of callee it has seen.
+ * Once it only ever called compiled functions, it checks the arity and calls them directly,
+ * without going through the LoxCallable interface. Any other callee rewrites it to the generic path.
+ */
+final class CallNode implements ExprNode {
+
+  private static final int UNINITIALIZED = 0;
+  private static final int FUNCTION = 1;
+  private static final int GENERIC = 2;
+
+  private final ExprNode callee;
+  private final ExprNode[] arguments;
+  private final Token paren;
+  private int state = UNINITIALIZED;
+
+  CallNode(ExprNode callee, ExprNode[] arguments, Token paren) {
+    this.callee = callee;
+    this.arguments = arguments;
+    this.paren = paren;
+  }
+
+  @Override
+  public Object evaluate(Environment environment) {
+    try {
+      return call(environment);
+    } catch (StackOverflowError error) {
+      //Calls recurse on the JVM thread's stack : only the VM keeps its frames on the heap
+      throw new RuntimeError(paren, "Stack overflow.");
+    }
+  }
+
+  private Object call(Environment environment) {
+    Object function = callee.evaluate(environment);
+
+    Object[] args = new Object[arguments.length];
+    for (int i = 0; i < args.length; i++) args[i] = arguments[i].evaluate(environment);
+
+    if (state == FUNCTION && function instanceof CompiledFunction compiled) {
+      if (compiled.arity() != arguments.length) throw arityError(compiled, args, paren);
+      return compiled.call(null, args);
+    }
+    if (state != GENERIC) {
+      state = state == UNINITIALIZED && function instanceof CompiledFunction ? FUNCTION : GENERIC;
+    }
+    return generic(function, args, paren);
+  }
+
+  /**
+   * Callables run by the closure engine do not need the tree-walk interpreter : they are handed none.
+   */
+  static Object generic(Object function, Object[] args, Token paren) {
+    if (!(function instanceof LoxCallable callable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+    if (args.length != callable.arity()) throw arityError(callable, args, paren);
+    return callable.call(null, args);
+  }
+
+  static RuntimeError arityError(LoxCallable callable, Object[] args, Token paren) {
+    return new RuntimeError(
+            paren,
+            "Expected " + callable.arity() + " arguments but got " + args.length + ".");
+  }
+}
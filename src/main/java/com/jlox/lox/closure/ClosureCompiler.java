@@ -0,0 +1,481 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.Lox;
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.string.Expr;
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.LoxCallable;
+import com.jlox.lox.object.LoxClass;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.object.LoxInstance;
+import com.jlox.lox.object.PropertyCache;
+import com.jlox.lox.pipeline.Interpreter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jlox.lox.grammar.token.TokenType.MINUS;
+import static com.jlox.lox.grammar.token.TokenType.OR;
+import static com.jlox.lox.helper.Values.isTruthy;
+import static com.jlox.lox.helper.Values.stringify;
+
+/**
+ * Compiles each resolved syntax tree node once into a Java lambda, with the operator, the variable's depth and slot
+ * and the compiled children bound in. Running the program then only calls these lambdas : no visitor dispatch,
+ * no switch on the operator type.
+ * Runtime semantics and error messages are those of the {@link Interpreter}, whose runtime objects are reused.
+ */
+public class ClosureCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+
+  private static final StmtNode[] NO_STATEMENTS = new StmtNode[0];
+
+  private final Environment globals = new Environment();
+  private Object returnValue; //Value of the last RETURN completion, until the called function takes it
+
+  public ClosureCompiler() {
+    globals.define("clock", new LoxCallable() {
+      @Override
+      public Object call(Interpreter interpreter, Object[] args) {
+        return (double) System.currentTimeMillis() / 1000.0;
+      }
+
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public String toString() { return "<native function>";}
+    });
+  }
+
+  /**
+   * Compiles the whole program first, then runs it in the global environment.
+   */
+  public void interpret(List<Stmt> statements) {
+    StmtNode[] program = compile(statements);
+    try {
+      for (StmtNode stmt : program) stmt.execute(globals);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  public String interpret(Expr expr) {
+    ExprNode node = compile(expr);
+    try {
+      return stringify(node.evaluate(globals));
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      return null;
+    }
+  }
+
+  Object takeReturnValue() {
+    Object value = returnValue;
+    returnValue = null;
+    return value;
+  }
+
+  /**
+   * @return the completion of the first statement that did not complete normally, which stops the block.
+   */
+  static Completion executeAll(StmtNode[] statements, Environment environment) {
+    for (StmtNode stmt : statements) {
+      Completion completion = stmt.execute(environment);
+      if (completion != Completion.NORMAL) return completion;
+    }
+    return Completion.NORMAL;
+  }
+
+  private ExprNode compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private StmtNode compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private StmtNode[] compile(List<Stmt> statements) {
+    if (statements.isEmpty()) return NO_STATEMENTS;
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; i++) nodes[i] = compile(statements.get(i));
+    return nodes;
+  }
+
+  /**
+   * A flattened block runs in the enclosing scope, any other gets an Environment of the size the Resolver computed.
+   */
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block stmt) {
+    StmtNode[] statements = compile(stmt.statements);
+    if (stmt.flat) return env -> executeAll(statements, env);
+    int size = stmt.size;
+    return env -> executeAll(statements, new Environment(env, size));
+  }
+
+  @Override
+  public StmtNode visitClassStmt(Stmt.Class stmt) {
+    String name = stmt.name.lexeme();
+    ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+    Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+
+    int methodCount = stmt.methods.size();
+    StmtNode[][] bodies = new StmtNode[methodCount][];
+    for (int i = 0; i < methodCount; i++) bodies[i] = compile(stmt.methods.get(i).body);
+    int slot = stmt.slot;
+
+    return env -> {
+      Object superValue = null;
+      Environment methodsEnv = env;
+      if (superclass != null) {
+        superValue = superclass.evaluate(env);
+        if (!(superValue instanceof LoxClass)) {
+          throw new RuntimeError(superclassName, "Superclass must be a class.");
+        }
+        methodsEnv = new Environment(env, 1);
+        methodsEnv.define("super", superValue);
+      }
+
+      Map<String, LoxFunction> methods = new HashMap<>();
+      for (int i = 0; i < methodCount; i++) {
+        Stmt.Function method = stmt.methods.get(i);
+        String methodName = method.name.lexeme();
+        methods.put(methodName, new CompiledFunction(
+                this, methodName.equals("init"), method, bodies[i], methodsEnv));
+      }
+      env.define(name, slot, new LoxClass(name, (LoxClass) superValue, methods));
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+    String name = stmt.name.lexeme();
+    StmtNode[] body = compile(stmt.body);
+    int slot = stmt.slot;
+    return env -> {
+      //Captures the current environment as closure when creating the function
+      env.define(name, slot, new CompiledFunction(this, false, stmt, body, env));
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+    ExprNode expression = compile(stmt.expression);
+    return env -> {
+      expression.evaluate(env);
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Stmt.Print stmt) {
+    ExprNode expression = compile(stmt.expression);
+    return env -> {
+      System.out.println(stringify(expression.evaluate(env)));
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Stmt.Var stmt) {
+    String name = stmt.name.lexeme();
+    int slot = stmt.slot;
+    if (stmt.initializer == null) {
+      return env -> {
+        env.define(name, slot, null);
+        return Completion.NORMAL;
+      };
+    }
+    ExprNode initializer = compile(stmt.initializer);
+    return env -> {
+      env.define(name, slot, initializer.evaluate(env));
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitIfStmt(Stmt.If stmt) {
+    ExprNode condition = compile(stmt.condition);
+    StmtNode thenBranch = compile(stmt.thenBranch);
+    if (stmt.elseBranch == null) {
+      return env -> isTruthy(condition.evaluate(env)) ? thenBranch.execute(env) : Completion.NORMAL;
+    }
+    StmtNode elseBranch = compile(stmt.elseBranch);
+    return env -> isTruthy(condition.evaluate(env)) ? thenBranch.execute(env) : elseBranch.execute(env);
+  }
+
+  @Override
+  public StmtNode visitWhileStmt(Stmt.While stmt) {
+    ExprNode condition = compile(stmt.condition);
+    StmtNode body = compile(stmt.body);
+    return env -> {
+      while (isTruthy(condition.evaluate(env))) {
+        Completion completion = body.execute(env);
+        if (completion == Completion.BREAK) break;
+        if (completion == Completion.RETURN) return completion;
+      }
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public StmtNode visitForStmt(Stmt.For stmt) {
+    StmtNode initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+    ExprNode condition = compile(stmt.condition);
+    ExprNode increment = stmt.increment == null ? null : compile(stmt.increment);
+    StmtNode body = compile(stmt.body);
+    int size = stmt.size;
+    if (!stmt.counted) return new ForNode(initializer, condition, increment, body, size, null, null, 0);
+
+    Expr.Binary comparison = (Expr.Binary) stmt.condition;
+    Expr.Binary step = (Expr.Binary) ((Expr.Assign) stmt.increment).value;
+    double delta = (double) ((Expr.Literal) step.right).value;
+    if (step.operator.type() == MINUS) delta = -delta;
+    return new ForNode(initializer, condition, increment, body, size,
+            compile(comparison.right), comparison.operator, delta);
+  }
+
+  @Override
+  public StmtNode visitBreakStmt(Stmt.Break stmt) {
+    return env -> Completion.BREAK;
+  }
+
+  @Override
+  public StmtNode visitContinueStmt(Stmt.Continue stmt) {
+    return env -> Completion.CONTINUE;
+  }
+
+  @Override
+  public StmtNode visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return env -> {
+        returnValue = null;
+        return Completion.RETURN;
+      };
+    }
+    ExprNode value = compile(stmt.value);
+    return env -> {
+      returnValue = value.evaluate(env);
+      return Completion.RETURN;
+    };
+  }
+
+  @Override
+  public ExprNode visitSuperExpr(Expr.Super expr) {
+    int depth = expr.depth;
+    int slot = expr.slot;
+    Token method = expr.method;
+    return env -> {
+      LoxClass superclass = (LoxClass) env.getFromEnvt(depth, slot);
+      //'this' is the only variable of the environment just inside the one holding 'super'
+      LoxInstance obj = (LoxInstance) env.getFromEnvt(depth - 1, 0);
+      LoxFunction function = superclass.findMethod(method.symbol());
+      if (function == null) {
+        throw new RuntimeError(method, "Undefined property '" + method.lexeme() + "'.");
+      }
+      return function.bind(obj);
+    };
+  }
+
+  @Override
+  public ExprNode visitThisExpr(Expr.This expr) {
+    return variable(expr.keyword, expr.depth, expr.slot);
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Expr.Variable expr) {
+    return variable(expr.name, expr.depth, expr.slot);
+  }
+
+  /**
+   * Locals are read straight from their resolved slot.
+   * Globals stay late bound, but their slot in the global scope is found by name once, here.
+   */
+  private ExprNode variable(Token name, int depth, int slot) {
+    if (depth == 0) return env -> env.getFromEnvt(0, slot);
+    if (depth != Expr.GLOBAL) return env -> env.getFromEnvt(depth, slot);
+    int global = globals.globalSlot(name.symbol());
+    return env -> globals.getGlobal(global, name);
+  }
+
+  @Override
+  public ExprNode visitAssignExpr(Expr.Assign expr) {
+    ExprNode value = compile(expr.value);
+    int depth = expr.depth;
+    int slot = expr.slot;
+    if (depth != Expr.GLOBAL) {
+      return env -> {
+        Object result = value.evaluate(env);
+        env.assignToEnvt(depth, slot, result);
+        return result;
+      };
+    }
+    Token name = expr.name;
+    int global = globals.globalSlot(name.symbol());
+    return env -> {
+      Object result = value.evaluate(env);
+      globals.assignGlobal(global, name, result);
+      return result;
+    };
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Expr.Get expr) {
+    ExprNode object = compile(expr.object);
+    Token name = expr.name;
+    PropertyCache cache = new PropertyCache();
+    return env -> {
+      if (object.evaluate(env) instanceof LoxInstance instance) return cache.get(instance, name);
+      throw new RuntimeError(name, "Only instances have properties.");
+    };
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Expr.Set expr) {
+    ExprNode object = compile(expr.object);
+    ExprNode value = compile(expr.value);
+    Token name = expr.name;
+    PropertyCache cache = new PropertyCache();
+    return env -> {
+      if (!(object.evaluate(env) instanceof LoxInstance instance)) {
+        throw new RuntimeError(name, "Only instances have fields.");
+      }
+      Object result = value.evaluate(env);
+      cache.set(instance, name, result);
+      return result;
+    };
+  }
+
+  /**
+   * The operator is switched on once, here : each operator gets its own node.
+   * Operators accepting several operand types get a {@link BinaryNode}, which specializes to the types it sees.
+   * Both operands are always evaluated before their types are checked, as in the interpreter.
+   */
+  @Override
+  public ExprNode visitBinaryExpr(Expr.Binary expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+    Token operator = expr.operator;
+
+    return switch (operator.type()) {
+      case GREATER -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l > (double) r;
+      };
+      case GREATER_EQUAL -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l >= (double) r;
+      };
+      case LESS -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l < (double) r;
+      };
+      case LESS_EQUAL -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l <= (double) r;
+      };
+      case PLUS, EQUAL_EQUAL, BANG_EQUAL -> new BinaryNode(left, operator, right);
+      case MINUS -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l - (double) r;
+      };
+      case SLASH -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        if ((double) r == 0) throw new RuntimeError(operator, "Division by zero!");
+        return (double) l / (double) r;
+      };
+      case STAR -> env -> {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        checkNumberOperands(operator, l, r);
+        return (double) l * (double) r;
+      };
+      default -> env -> {
+        left.evaluate(env);
+        right.evaluate(env);
+        return null;
+      };
+    };
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public ExprNode visitLiteralExpr(Expr.Literal expr) {
+    Object value = expr.value;
+    return env -> value;
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Expr.Unary expr) {
+    ExprNode right = compile(expr.right);
+    Token operator = expr.operator;
+
+    return switch (operator.type()) {
+      case MINUS -> env -> {
+        Object operand = right.evaluate(env);
+        if (!(operand instanceof Double d)) throw new RuntimeError(operator, "Operand must be a number.");
+        return -d;
+      };
+      case BANG -> env -> !isTruthy(right.evaluate(env));
+      default -> env -> {
+        right.evaluate(env);
+        return null;
+      };
+    };
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Expr.Logical expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+
+    if (expr.operator.type() == OR) {
+      return env -> {
+        Object l = left.evaluate(env);
+        return isTruthy(l) ? l : right.evaluate(env);
+      };
+    }
+    return env -> {
+      Object l = left.evaluate(env);
+      return isTruthy(l) ? right.evaluate(env) : l;
+    };
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Expr.Call expr) {
+    Expr.Get get = expr.callee instanceof Expr.Get access ? access : null;
+    ExprNode callee = compile(get != null ? get.object : expr.callee);
+    ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) arguments[i] = compile(expr.arguments.get(i));
+    if (get != null) return new InvokeNode(callee, get.name, arguments, expr.paren);
+    return new CallNode(callee, arguments, expr.paren);
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+}
@@ -0,0 +1,50 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.object.LoxInstance;
+import com.jlox.lox.pipeline.Interpreter;
+
+/**
+ * A Lox function whose body was compiled by the {@link ClosureCompiler}.
+ * It is still a LoxFunction, so LoxClass and LoxInstance look it up, bind and call it like any other method.
+ */
+final class CompiledFunction extends LoxFunction {
+
+  private final ClosureCompiler engine;
+  private final StmtNode[] body;
+
+  CompiledFunction(ClosureCompiler engine,
+                   boolean isInitializer,
+                   Stmt.Function declaration,
+                   StmtNode[] body,
+                   Environment closure) {
+    super(isInitializer, declaration, closure);
+    this.engine = engine;
+    this.body = body;
+  }
+
+  /**
+   * The interpreter argument is unused : the compiled body runs on its own.
+   */
+  @Override
+  protected Object call(Interpreter interpreter,
+                        Object[] args,
+                        Environment closure) {
+    Environment env = new Environment(closure, args, frameSize());
+
+    Completion completion = ClosureCompiler.executeAll(body, env);
+    Object value = completion == Completion.RETURN ? engine.takeReturnValue() : null;
+
+    //init() always returns 'this' even when directly called
+    if (isInitializer) return closure.getFromEnvt(0, 0);
+    return value;
+  }
+
+  @Override
+  public LoxFunction bind(LoxInstance instance) {
+    return new CompiledFunction(engine, isInitializer, declaration, body, scopeOf(instance));
+  }
+}
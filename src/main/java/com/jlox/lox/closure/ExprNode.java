@@ -0,0 +1,12 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.object.Environment;
+
+/**
+ * An expression compiled once by the {@link ClosureCompiler} : evaluating it never goes back through the visitor.
+ */
+@FunctionalInterface
+interface ExprNode {
+
+  Object evaluate(Environment environment);
+}
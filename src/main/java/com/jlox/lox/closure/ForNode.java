@@ -0,0 +1,82 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.object.Environment;
+
+import static com.jlox.lox.helper.Values.isTruthy;
+
+/**
+ * A 'for' loop. The initializer's scope lasts for the whole loop, and as in the while loop a 'for' used to be
+ * de-sugared to, a 'continue' skips the increment.
+ * A counted loop keeps its counter as a double, only handing the body its boxed value.
+ */
+final class ForNode implements StmtNode {
+
+  private final StmtNode initializer; //null if there is none
+  private final ExprNode condition;
+  private final ExprNode increment; //null if there is none
+  private final StmtNode body;
+  private final int size; //Slots of the initializer's scope
+
+  //For a counted loop : the bound the counter is compared to, and what the increment adds to it
+  private final ExprNode bound;
+  private final Token operator;
+  private final double step;
+
+  ForNode(StmtNode initializer, ExprNode condition, ExprNode increment, StmtNode body, int size,
+          ExprNode bound, Token operator, double step) {
+    this.initializer = initializer;
+    this.condition = condition;
+    this.increment = increment;
+    this.body = body;
+    this.size = size;
+    this.bound = bound;
+    this.operator = operator;
+    this.step = step;
+  }
+
+  @Override
+  public Completion execute(Environment environment) {
+    Environment loop = environment;
+    if (initializer != null) {
+      loop = new Environment(environment, size);
+      initializer.execute(loop);
+    }
+    //The counter is the first variable of the initializer's scope
+    if (bound != null && loop.getFromEnvt(0, 0) instanceof Double start) return counted(loop, start);
+
+    while (isTruthy(condition.evaluate(loop))) {
+      Completion completion = body.execute(loop);
+      if (completion == Completion.BREAK) break;
+      if (completion == Completion.RETURN) return completion;
+      if (completion == Completion.NORMAL && increment != null) increment.evaluate(loop);
+    }
+    return Completion.NORMAL;
+  }
+
+  private Completion counted(Environment loop, double start) {
+    double counter = start;
+    while (compare(counter, bound.evaluate(loop))) {
+      Completion completion = body.execute(loop);
+      if (completion == Completion.BREAK) break;
+      if (completion == Completion.RETURN) return completion;
+      if (completion == Completion.NORMAL) {
+        counter += step;
+        loop.assignToEnvt(0, 0, counter);
+      }
+    }
+    return Completion.NORMAL;
+  }
+
+  private boolean compare(double counter, Object value) {
+    if (!(value instanceof Double limit)) throw new RuntimeError(operator, "Operands must be numbers.");
+    return switch (operator.type()) {
+      case LESS -> counter < limit;
+      case LESS_EQUAL -> counter <= limit;
+      case GREATER -> counter > limit;
+      default -> counter >= limit;
+    };
+  }
+}
@@ -0,0 +1,52 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.object.LoxInstance;
+import com.jlox.lox.object.PropertyCache;
+
+/**
+ * A call of the form obj.method(args) : the method is called on the instance directly, no bound method is created.
+ * A field holding a callable is called as the {@link CallNode} would.
+ */
+final class InvokeNode implements ExprNode {
+
+  private final ExprNode object;
+  private final Token name;
+  private final ExprNode[] arguments;
+  private final Token paren;
+  private final PropertyCache cache = new PropertyCache();
+
+  InvokeNode(ExprNode object, Token name, ExprNode[] arguments, Token paren) {
+    this.object = object;
+    this.name = name;
+    this.arguments = arguments;
+    this.paren = paren;
+  }
+
+  @Override
+  public Object evaluate(Environment environment) {
+    try {
+      return invoke(environment);
+    } catch (StackOverflowError error) {
+      throw new RuntimeError(paren, "Stack overflow.");
+    }
+  }
+
+  private Object invoke(Environment environment) {
+    if (!(object.evaluate(environment) instanceof LoxInstance instance)) {
+      throw new RuntimeError(name, "Only instances have properties.");
+    }
+    LoxFunction method = cache.method(instance, name);
+    Object field = method == null ? cache.get(instance, name) : null;
+
+    Object[] args = new Object[arguments.length];
+    for (int i = 0; i < args.length; i++) args[i] = arguments[i].evaluate(environment);
+
+    if (method == null) return CallNode.generic(field, args, paren);
+    if (method.arity() != arguments.length) throw CallNode.arityError(method, args, paren);
+    return method.invoke(null, instance, args);
+  }
+}
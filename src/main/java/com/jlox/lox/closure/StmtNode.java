@@ -0,0 +1,13 @@
+package com.jlox.lox.closure;
+
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.object.Environment;
+
+/**
+ * A statement compiled once by the {@link ClosureCompiler}, reporting how it completed.
+ */
+@FunctionalInterface
+interface StmtNode {
+
+  Completion execute(Environment environment);
+}
@@ -1,10 +1,17 @@
 package com.jlox.lox.grammar.string;
 
 import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.object.GlobalCache;
+import com.jlox.lox.object.PropertyCache;
 
 import java.util.List;
 
 public abstract class Expr {
+  /**
+   * Depth of a variable no local scope declares : it is looked up in the globals.
+   */
+  public static final int GLOBAL = -1;
+
   public interface Visitor<R> {
 
     R visitSuperExpr(Super expr);
@@ -44,6 +51,10 @@ public abstract class Expr {
     }
     public final Token keyword;
     public final Token method;
+
+    //Set by the Resolver : scopes to walk up, and the variable's slot in that scope
+    public int depth = GLOBAL;
+    public int slot;
   }
 
 
@@ -58,6 +69,10 @@ public abstract class Expr {
     }
 
     public final Token keyword;
+
+    //Set by the Resolver : scopes to walk up, and the variable's slot in that scope
+    public int depth = GLOBAL;
+    public int slot;
   }
 
   public static class Get extends Expr {
@@ -73,6 +88,9 @@ public abstract class Expr {
 
     public final Expr object;
     public final Token name;
+
+    //Used by the Interpreter : the shape of the instances last seen here and the property's slot
+    public final PropertyCache cache = new PropertyCache();
   }
 
   public static class Set extends Expr {
@@ -90,6 +108,9 @@ public abstract class Expr {
     public final Expr object;
     public final Token name;
     public final Expr value;
+
+    //Used by the Interpreter : the shape of the instances last seen here and the property's slot
+    public final PropertyCache cache = new PropertyCache();
   }
 
   public static class Binary extends Expr {
@@ -161,6 +182,13 @@ public abstract class Expr {
     }
 
     public final Token name;
+
+    //Set by the Resolver : scopes to walk up, and the variable's slot in that scope
+    public int depth = GLOBAL;
+    public int slot;
+
+    //Used by the Interpreter, when the variable is global : its slot in the global scope
+    public final GlobalCache cache = new GlobalCache();
   }
 
   /**
@@ -179,6 +207,13 @@ public abstract class Expr {
 
     public final Token name;
     public final Expr value;
+
+    //Set by the Resolver : scopes to walk up, and the variable's slot in that scope
+    public int depth = GLOBAL;
+    public int slot;
+
+    //Used by the Interpreter, when the variable is global : its slot in the global scope
+    public final GlobalCache cache = new GlobalCache();
   }
 
   public static class Logical extends Expr {
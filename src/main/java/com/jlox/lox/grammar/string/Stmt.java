@@ -23,6 +23,8 @@ public abstract class Stmt {
 
     R visitWhileStmt(While stmt);
 
+    R visitForStmt(For stmt);
+
     R visitBreakStmt(Break stmt);
 
     R visitContinueStmt(Continue stmt);
@@ -45,6 +47,9 @@ public abstract class Stmt {
     public final Token name;
     public final Expr.Variable superclass;
     public final List<Stmt.Function> methods;
+
+    //Set by the Resolver : slot of the declared variable in its scope, -1 for a global
+    public int slot = -1;
   }
 
   public static class Function extends Stmt {
@@ -62,6 +67,12 @@ public abstract class Stmt {
     public final Token name;
     public final List<Token> params;
     public final List<Stmt> body;
+
+    //Set by the Resolver : slot of the declared variable in its scope, -1 for a global
+    public int slot = -1;
+
+    //Set by the Resolver : slots of the scope, those of the blocks flattened into it included
+    public int size;
   }
 
   public static class Block extends Stmt {
@@ -75,6 +86,11 @@ public abstract class Stmt {
     }
 
     public final List<Stmt> statements;
+
+    //Set by the Resolver : no closure can capture its locals, they take slots of the enclosing scope
+    public boolean flat;
+    //Set by the Resolver : slots of the scope, those of the blocks flattened into it included
+    public int size;
   }
 
   public static class Expression extends Stmt {
@@ -116,6 +132,9 @@ public abstract class Stmt {
 
     public final Token name;
     public final Expr initializer;
+
+    //Set by the Resolver : slot of the declared variable in its scope, -1 for a global
+    public int slot = -1;
   }
 
   public static class If extends Stmt {
@@ -150,6 +169,31 @@ public abstract class Stmt {
     public final Stmt body;
   }
 
+  public static class For extends Stmt {
+    public For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    public final Stmt initializer;
+    public final Expr condition;
+    public final Expr increment;
+    public final Stmt body;
+
+    //Set by the Resolver : 'var i = a; i < b; i = i + c' where only the increment assigns i
+    public boolean counted;
+
+    //Set by the Resolver : slots of the scope, those of the blocks flattened into it included
+    public int size;
+  }
+
   public static class Break extends Stmt {
     public Break() {
 
@@ -0,0 +1,111 @@
+package com.jlox.lox.grammar.token;
+
+import java.util.Arrays;
+
+/**
+ * The symbol table shared by every scanned source : each distinct name gets one String and one int id, for good.
+ * Tokens naming the same identifier share the String, and runtime tables are keyed by the id,
+ * so looking a name up neither hashes nor compares its characters again.
+ * The scanner interns a name straight from the source, without creating a String for an identifier seen before.
+ * Scanners run in parallel : a name already interned is found without taking the lock, only adding one takes it.
+ */
+public final class Symbols {
+
+  //Open addressing, linear probing : an entry is a symbol id plus one, 0 when empty
+  //Read without the lock, a table may be missing the latest names : the lookup is then retried under it
+  private static volatile int[] table = new int[1024];
+  private static volatile String[] names = new String[512];
+  private static int count = 0;
+
+  private Symbols() {
+  }
+
+  /**
+   * @return the id of the name, created on first use.
+   */
+  public static int intern(String name) {
+    return intern(name, 0, name.length());
+  }
+
+  /**
+   * @return the id of the name made of the characters from start (inclusive) to end (exclusive).
+   */
+  public static int intern(CharSequence text, int start, int end) {
+    int hash = hash(text, start, end);
+    int symbol = find(hash, text, start, end);
+    return symbol >= 0 ? symbol : add(hash, text, start, end);
+  }
+
+  /**
+   * @return the id of the name, -1 if it is not found without the lock.
+   */
+  private static int find(int hash, CharSequence text, int start, int end) {
+    int[] table = Symbols.table;
+    String[] names = Symbols.names;
+    int mask = table.length - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      int entry = table[i];
+      String name = entry == 0 || entry > names.length ? null : names[entry - 1];
+      if (name == null) return -1;
+      if (matches(name, text, start, end)) return entry - 1;
+    }
+  }
+
+  private static synchronized int add(int hash, CharSequence text, int start, int end) {
+    int mask = table.length - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      int entry = table[i];
+      if (entry == 0) {
+        int symbol = count++;
+        if (symbol == names.length) names = Arrays.copyOf(names, symbol * 2);
+        names[symbol] = text.subSequence(start, end).toString();
+        table[i] = symbol + 1;
+        if (count * 2 > table.length) rehash();
+        return symbol;
+      }
+      if (matches(names[entry - 1], text, start, end)) return entry - 1;
+    }
+  }
+
+  public static String name(int symbol) {
+    String[] names = Symbols.names;
+    String name = symbol < names.length ? names[symbol] : null;
+    return name != null ? name : lockedName(symbol);
+  }
+
+  private static synchronized String lockedName(int symbol) {
+    return names[symbol];
+  }
+
+  /**
+   * Same value as String.hashCode(), which a String caches : rehashing names needs no pass over their characters.
+   */
+  private static int hash(CharSequence text, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) hash = 31 * hash + text.charAt(i);
+    return hash;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String name, CharSequence text, int start, int end) {
+    if (name.length() != end - start) return false;
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != text.charAt(start + i)) return false;
+    }
+    return true;
+  }
+
+  private static void rehash() {
+    int[] grown = new int[table.length * 2];
+    int mask = grown.length - 1;
+    for (int symbol = 0; symbol < count; symbol++) {
+      int i = spread(names[symbol].hashCode()) & mask;
+      while (grown[i] != 0) i = (i + 1) & mask;
+      grown[i] = symbol + 1;
+    }
+    table = grown;
+  }
+}
@@ -6,8 +6,23 @@ package com.jlox.lox.grammar.token;
  * The scanner must know whether the lexeme is a reserved keyword, thus what kind of token the lexeme represents.
  * The scanner must know whether the lexeme stands for a literal value.
  * For the purpose of tracking and reporting syntax errors, the location of the token must be remembered.
+ * A token naming something (an identifier, 'this' or 'super') carries the {@link Symbols} id of its name,
+ * other tokens carry NO_SYMBOL.
  */
-public record Token(TokenType type, String lexeme, Object literal, int line) {
+public record Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
+
+  public static final int NO_SYMBOL = -1;
+
+  /**
+   * For a token built outside of the scanner : a name is interned here.
+   */
+  public Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, isName(type) ? Symbols.intern(lexeme) : NO_SYMBOL);
+  }
+
+  public static boolean isName(TokenType type) {
+    return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
+  }
 
   @Override
   public String toString() {
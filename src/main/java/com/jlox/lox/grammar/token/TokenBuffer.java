@@ -0,0 +1,156 @@
+package com.jlox.lox.grammar.token;
+
+import java.util.Arrays;
+
+/**
+ * The tokens between the Scanner and the Parser, in a small ring of parallel arrays : type, line and a value.
+ * The Parser pulls them : the Scanner is run whenever it asks for a token not scanned yet,
+ * so memory does not grow with the number of tokens and lexing is interleaved with parsing.
+ * The value is the symbol id of an identifier or keyword. A number keeps its lexeme, a string its text.
+ * No lexeme is kept for the other tokens, their text is fixed by their type :
+ * a {@link Token} is only built when the Parser keeps it in the tree or reports an error at it.
+ */
+public final class TokenBuffer {
+
+  private static final TokenType[] TYPES = TokenType.values();
+  private static final String[] TEXT = new String[TYPES.length];
+
+  static {
+    for (TokenType type : TYPES) {
+      TEXT[type.ordinal()] = switch (type) {
+        case LEFT_PAREN -> "(";
+        case RIGHT_PAREN -> ")";
+        case LEFT_BRACE -> "{";
+        case RIGHT_BRACE -> "}";
+        case COMMA -> ",";
+        case DOT -> ".";
+        case MINUS -> "-";
+        case PLUS -> "+";
+        case SEMICOLON -> ";";
+        case SLASH -> "/";
+        case STAR -> "*";
+        case BANG -> "!";
+        case BANG_EQUAL -> "!=";
+        case EQUAL -> "=";
+        case EQUAL_EQUAL -> "==";
+        case GREATER -> ">";
+        case GREATER_EQUAL -> ">=";
+        case LESS -> "<";
+        case LESS_EQUAL -> "<=";
+        case EOF -> "";
+        default -> null; //The text is in the token's value
+      };
+    }
+  }
+
+  //Holds the token being parsed and the one before it, the Parser never looks further
+  private static final int CAPACITY = 4;
+
+  private byte[] types;
+  private int[] lines;
+  private int[] values;
+  private String[] texts; //Lexeme of a number, text of a string
+  private int mask;
+  private final Runnable scanner; //Adds at least one token, null if the buffer keeps them all
+  private int scanned = 0; //Tokens added so far
+
+  /**
+   * @param scanner called whenever a token past the ones added is asked for.
+   */
+  public TokenBuffer(Runnable scanner) {
+    this(scanner, CAPACITY);
+  }
+
+  /**
+   * A buffer keeping every token added, for a part of the source scanned ahead of the Parser.
+   */
+  public TokenBuffer() {
+    this(null, 256);
+  }
+
+  private TokenBuffer(Runnable scanner, int capacity) {
+    this.scanner = scanner;
+    types = new byte[capacity];
+    lines = new int[capacity];
+    values = new int[capacity];
+    texts = new String[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Overwrites the token added CAPACITY tokens before, unless the buffer keeps them all.
+   *
+   * @param text the lexeme of a number or the text of a string, null for other tokens.
+   */
+  public void add(TokenType type, int line, int value, String text) {
+    if (scanner == null && scanned == types.length) grow();
+    int slot = scanned++ & mask;
+    types[slot] = (byte) type.ordinal();
+    lines[slot] = line;
+    values[slot] = value;
+    texts[slot] = text;
+  }
+
+  /**
+   * Adds the token at the index of another buffer.
+   */
+  public void copy(TokenBuffer from, int index) {
+    int slot = from.slot(index);
+    add(TYPES[from.types[slot]], from.lines[slot], from.values[slot], from.texts[slot]);
+  }
+
+  /**
+   * Doubling keeps every index in its slot : a buffer keeping its tokens never wraps around.
+   */
+  private void grow() {
+    int capacity = types.length * 2;
+    types = Arrays.copyOf(types, capacity);
+    lines = Arrays.copyOf(lines, capacity);
+    values = Arrays.copyOf(values, capacity);
+    texts = Arrays.copyOf(texts, capacity);
+    mask = capacity - 1;
+  }
+
+  public int scanned() {
+    return scanned;
+  }
+
+  /**
+   * Scans up to the index : an index only stays readable while fewer than CAPACITY tokens are added after it.
+   */
+  private int slot(int index) {
+    while (index >= scanned) scanner.run();
+    return index & mask;
+  }
+
+  public TokenType type(int index) {
+    return TYPES[types[slot(index)]];
+  }
+
+  /**
+   * The literal value of the number or string at the index, without building its token.
+   */
+  public Object literal(int index) {
+    int slot = slot(index);
+    return TYPES[types[slot]] == TokenType.NUMBER ? (Object) Double.parseDouble(texts[slot]) : texts[slot];
+  }
+
+  /**
+   * Builds the token at the index : each call gives a new one.
+   */
+  public Token token(int index) {
+    int slot = slot(index);
+    TokenType type = TYPES[types[slot]];
+    int line = lines[slot];
+    return switch (type) {
+      case NUMBER -> new Token(type, texts[slot], Double.parseDouble(texts[slot]), line, Token.NO_SYMBOL);
+      case STRING -> new Token(type, '"' + texts[slot] + '"', texts[slot], line, Token.NO_SYMBOL);
+      default -> {
+        String text = TEXT[type.ordinal()];
+        if (text != null) yield new Token(type, text, null, line, Token.NO_SYMBOL);
+        int symbol = values[slot];
+        yield new Token(type, Symbols.name(symbol), null, line, Token.isName(type) ? symbol : Token.NO_SYMBOL);
+      }
+    };
+  }
+}
@@ -0,0 +1,12 @@
+package com.jlox.lox.helper;
+
+/**
+ * How a statement finished executing, reported by the interpreter instead of throwing through the Java stack.
+ * A RETURN completion's value is held by the interpreter until the called function takes it.
+ */
+public enum Completion {
+  NORMAL,
+  BREAK,
+  CONTINUE,
+  RETURN
+}
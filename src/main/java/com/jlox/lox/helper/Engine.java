@@ -0,0 +1,10 @@
+package com.jlox.lox.helper;
+
+/**
+ * Execution engines a program can be run with, selected from the command line with '--engine=name'.
+ */
+public enum Engine {
+  INTERPRETER, //Tree-walk interpreter, the default
+  CLOSURE,     //Syntax tree compiled once into a tree of Java lambdas
+  VM           //Bytecode compiler and stack-based virtual machine
+}
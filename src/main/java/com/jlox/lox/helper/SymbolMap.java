@@ -0,0 +1,83 @@
+package com.jlox.lox.helper;
+
+/**
+ * A map keyed by symbol ids : open addressing with linear probing over primitive int keys.
+ * No key is boxed, hashed as a String or compared by its characters.
+ * Entries are only ever added : runtime tables such as shapes and method tables never remove a name.
+ */
+public final class SymbolMap<V> {
+
+  private int[] keys; //A symbol id plus one, 0 when the entry is empty
+  private Object[] values;
+  private int size = 0;
+
+  public SymbolMap() {
+    this.keys = new int[8];
+    this.values = new Object[8];
+  }
+
+  public SymbolMap(SymbolMap<V> other) {
+    this.keys = other.keys.clone();
+    this.values = other.values.clone();
+    this.size = other.size;
+  }
+
+  /**
+   * @return null if the symbol has no entry.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int symbol) {
+    int mask = keys.length - 1;
+    for (int i = spread(symbol) & mask; ; i = (i + 1) & mask) {
+      int key = keys[i];
+      if (key == symbol + 1) return (V) values[i];
+      if (key == 0) return null;
+    }
+  }
+
+  public void put(int symbol, V value) {
+    int mask = keys.length - 1;
+    int i = spread(symbol) & mask;
+    while (keys[i] != 0 && keys[i] != symbol + 1) i = (i + 1) & mask;
+    if (keys[i] == 0) {
+      keys[i] = symbol + 1;
+      size++;
+    }
+    values[i] = value;
+    if (size * 2 > keys.length) grow();
+  }
+
+  @SuppressWarnings("unchecked")
+  public void putAll(SymbolMap<V> other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != 0) put(other.keys[i] - 1, (V) other.values[i]);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Symbol ids are consecutive : multiplying by the golden ratio scatters them over the table.
+   */
+  private static int spread(int symbol) {
+    int hash = symbol * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    values = new Object[oldKeys.length * 2];
+    int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] == 0) continue;
+      int i = spread(oldKeys[j] - 1) & mask;
+      while (keys[i] != 0) i = (i + 1) & mask;
+      keys[i] = oldKeys[j];
+      values[i] = oldValues[j];
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.jlox.lox.helper;
+
+/**
+ * Lox value semantics shared by every execution engine, so that the tree-walker and the VM agree
+ * on truthiness, equality and how values are printed.
+ */
+public final class Values {
+
+  private Values() {
+  }
+
+  /**
+   * 'false' and 'nil' are falsey, everything else is truthy.
+   */
+  public static boolean isTruthy(Object obj) {
+    if (obj == null) return false;
+    if (obj instanceof Boolean b) return b;
+    return true;
+  }
+
+  public static boolean isEqual(Object a, Object b) {
+    if (a == null && b == null) return true;
+    if (a == null) return false;
+    return a.equals(b);
+  }
+
+  /**
+   * Same as Double.equals() : NaN equals itself, 0 and -0 differ.
+   * Lets the engines that keep numbers unboxed compare them without allocating.
+   */
+  public static boolean isEqual(double a, double b) {
+    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+  }
+
+  public static String stringify(Object obj) {
+    if (obj == null) return "nil";
+    if (obj instanceof Double d) return stringify((double) d);
+    return obj.toString();
+  }
+
+  public static String stringify(double number) {
+    String txt = Double.toString(number);
+    if (txt.endsWith(".O")) {
+      //Lox uses double-precision numbers only. For integer values, prints without decimal point
+      txt = txt.substring(0, txt.length() - 2);
+    }
+    return txt;
+  }
+}
@@ -0,0 +1,84 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.object.LoxInstance;
+import com.jlox.lox.pipeline.Interpreter;
+
+/**
+ * A function of a script compiled ahead of time by the {@link ScriptCompiler}.
+ * There is no syntax tree left at run time : the function only knows its name, its arity, the size of its scope
+ * and its compiled body.
+ * It is still a LoxFunction, so LoxClass and LoxInstance look it up, bind and call it like any other method.
+ */
+public final class AotFunction extends LoxFunction {
+
+  private final String name;
+  private final int arity;
+  private final int frameSize;
+  private final CompiledBody body;
+
+  public AotFunction(String name,
+                     int arity,
+                     int frameSize,
+                     boolean isInitializer,
+                     CompiledBody body,
+                     Environment closure) {
+    super(isInitializer, null, closure);
+    this.name = name;
+    this.arity = arity;
+    this.frameSize = frameSize;
+    this.body = body;
+  }
+
+  @Override
+  protected Object call(Interpreter interpreter,
+                        Object[] args,
+                        Environment closure) {
+    return invokeCompiled(body, interpreter, args, closure);
+  }
+
+  /**
+   * A class holds one instance per compiled body, so the body stands for the code.
+   */
+  @Override
+  public Object code() {
+    return body;
+  }
+
+  @Override
+  public CompiledBody compiledBody() {
+    return body;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  protected int frameSize() {
+    return frameSize;
+  }
+
+  @Override
+  public LoxFunction bind(LoxInstance instance) {
+    return closeOver(scopeOf(instance));
+  }
+
+  /**
+   * Methods are compiled without a closure : the class declaration gives them the environment they close over.
+   */
+  AotFunction closeOver(Environment environment) {
+    return new AotFunction(name, arity, frameSize, isInitializer, body, environment);
+  }
+
+  String name() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return "<fn " + name + ">";
+  }
+}
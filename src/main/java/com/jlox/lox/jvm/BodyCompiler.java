@@ -0,0 +1,511 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.grammar.string.Expr;
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.GlobalCache;
+import com.jlox.lox.object.PropertyCache;
+import com.jlox.lox.pipeline.Interpreter;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Handle;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static com.jlox.lox.grammar.token.TokenType.OR;
+
+/**
+ * Compiles the statements of a function body to the code of a JVM method returning the function's value.
+ * Values stay boxed and variables stay in their Environment slots, which closures share with interpreted code.
+ * What goes away is the visitor dispatch : each body becomes one straight-line JVM method
+ * whose control flow is jumps, and which HotSpot optimizes as a whole.
+ * Subclasses decide where constants come from and how nested functions and classes are created :
+ * the {@link FunctionCompiler} compiles one hot function at run time, the {@link ScriptCompiler} a whole script ahead of time.
+ * The method takes the interpreter and the function's environment as its first locals,
+ * and each nested block that is not flattened gets the next local for its own environment.
+ */
+abstract class BodyCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+  static final String OBJECT = "java/lang/Object";
+  static final String RUNTIME = Type.getInternalName(LoxRuntime.class);
+  static final String ENVIRONMENT = Type.getInternalName(Environment.class);
+  static final String INTERPRETER = Type.getInternalName(Interpreter.class);
+  static final String TOKEN = Type.getInternalName(Token.class);
+  static final String PROPERTY_CACHE = Type.getInternalName(PropertyCache.class); //A new one per access site
+  static final String GLOBAL_CACHE = Type.getInternalName(GlobalCache.class); //Likewise
+  static final String BODY_DESCRIPTOR = "(L" + INTERPRETER + ";L" + ENVIRONMENT + ";)Ljava/lang/Object;";
+  static final String DEFINE = "(Ljava/lang/String;ILjava/lang/Object;)V"; //Environment.define of a declared variable
+  //Lox calls are linked by LoxCallSite, the line of the closing parenthesis is the only static argument
+  private static final Handle CALL_SITE = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(LoxCallSite.class),
+          "bootstrap", MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class,
+          int.class).toMethodDescriptorString(), false);
+  private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;";
+
+  protected final MethodVisitor mv;
+  private final int interpreterLocal;
+  private final Deque<Label[]> loops = new ArrayDeque<>(); //{condition, exit} of the enclosing loops
+  private int envLocal;
+  private int nextLocal;
+
+  /**
+   * @param interpreterLocal local holding the interpreter, the function's environment is the next one.
+   */
+  BodyCompiler(MethodVisitor mv, int interpreterLocal) {
+    this.mv = mv;
+    this.interpreterLocal = interpreterLocal;
+    this.envLocal = interpreterLocal + 1;
+    this.nextLocal = envLocal + 1;
+  }
+
+  /**
+   * Only Lox runtime types meet at branch merges, and those are all handled as plain objects.
+   */
+  static ClassWriter classWriter() {
+    return new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+      @Override
+      protected String getCommonSuperClass(String type1, String type2) {
+        return type1.equals(type2) ? type1 : OBJECT;
+      }
+    };
+  }
+
+  /**
+   * Values bytecode cannot hold as constants, such as tokens used in error messages, are loaded by the subclass.
+   */
+  abstract void loadConstant(Object value, String type);
+
+  /**
+   * Compiles the body and ends the method : falling off the end of the body returns nil.
+   */
+  void compileBody(List<Stmt> body) {
+    mv.visitCode();
+    for (Stmt stmt : body) compile(stmt);
+    returnNil();
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  void loadEnvironment() {
+    mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+  }
+
+  void loadInterpreter() {
+    mv.visitVarInsn(Opcodes.ALOAD, interpreterLocal);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.flat) {
+      for (Stmt statement : stmt.statements) compile(statement);
+      return null;
+    }
+    int enclosing = envLocal;
+    int local = newEnvironment(stmt.size);
+
+    //Leaving the block, normally or by a jump, goes back to code that reads the enclosing environment's slot
+    envLocal = local;
+    for (Stmt statement : stmt.statements) compile(statement);
+    envLocal = enclosing;
+    nextLocal--;
+    return null;
+  }
+
+  /**
+   * Stores a new scope, nested in the current one, in the next free local.
+   *
+   * @param size slots the Resolver computed for the scope.
+   * @return the local holding the scope, the caller frees it.
+   */
+  private int newEnvironment(int size) {
+    int local = nextLocal++;
+    mv.visitTypeInsn(Opcodes.NEW, ENVIRONMENT);
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+    pushInt(size);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ENVIRONMENT, "<init>", "(L" + ENVIRONMENT + ";I)V", false);
+    mv.visitVarInsn(Opcodes.ASTORE, local);
+    return local;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    mv.visitInsn(Opcodes.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "print", "(Ljava/lang/Object;)V", false);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+    mv.visitLdcInsn(stmt.name.lexeme());
+    pushInt(stmt.slot);
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      mv.visitInsn(Opcodes.ACONST_NULL);
+    }
+    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "define", DEFINE, false);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Label elseBranch = new Label();
+    Label end = new Label();
+    compileCondition(stmt.condition, elseBranch);
+    compile(stmt.thenBranch);
+    mv.visitJumpInsn(Opcodes.GOTO, end);
+    mv.visitLabel(elseBranch);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    mv.visitLabel(end);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Label condition = new Label();
+    Label exit = new Label();
+    mv.visitLabel(condition);
+    compileCondition(stmt.condition, exit);
+    loops.push(new Label[]{condition, exit});
+    compile(stmt.body);
+    loops.pop();
+    mv.visitJumpInsn(Opcodes.GOTO, condition);
+    mv.visitLabel(exit);
+    return null;
+  }
+
+  /**
+   * Mirrors Interpreter.visitForStmt : a 'continue' jumps back to the condition, skipping the increment.
+   * Counted loops are not special-cased here : the counter stays in the scope the body reads it from.
+   */
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    int enclosing = envLocal;
+    if (stmt.initializer != null) {
+      envLocal = newEnvironment(stmt.size);
+      compile(stmt.initializer);
+    }
+
+    Label condition = new Label();
+    Label exit = new Label();
+    mv.visitLabel(condition);
+    compileCondition(stmt.condition, exit);
+    loops.push(new Label[]{condition, exit});
+    compile(stmt.body);
+    loops.pop();
+    if (stmt.increment != null) {
+      compile(stmt.increment);
+      mv.visitInsn(Opcodes.POP);
+    }
+    mv.visitJumpInsn(Opcodes.GOTO, condition);
+    mv.visitLabel(exit);
+
+    if (stmt.initializer != null) nextLocal--;
+    envLocal = enclosing;
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    if (loops.isEmpty()) {
+      exitOutsideLoop();
+    } else {
+      mv.visitJumpInsn(Opcodes.GOTO, loops.peek()[1]);
+    }
+    return null;
+  }
+
+  /**
+   * Jumps back to the condition : like the interpreter, a 'for' loop's increment is skipped.
+   */
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    if (loops.isEmpty()) {
+      exitOutsideLoop();
+    } else {
+      mv.visitJumpInsn(Opcodes.GOTO, loops.peek()[0]);
+    }
+    return null;
+  }
+
+  /**
+   * The parser accepts 'break' and 'continue' outside of a loop : like the interpreter's, such a body just ends there.
+   */
+  void exitOutsideLoop() {
+    returnNil();
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      returnNil();
+    } else {
+      compile(stmt.value);
+      mv.visitInsn(Opcodes.ARETURN);
+    }
+    return null;
+  }
+
+  private void returnNil() {
+    mv.visitInsn(Opcodes.ACONST_NULL);
+    mv.visitInsn(Opcodes.ARETURN);
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+    pushInt(expr.depth);
+    pushInt(expr.slot);
+    loadConstant(expr.method, TOKEN);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "superMethod",
+            "(L" + ENVIRONMENT + ";IIL" + TOKEN + ";)Ljava/lang/Object;", false);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    loadVariable(expr.keyword, expr.depth, expr.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    loadVariable(expr.name, expr.depth, expr.slot);
+    return null;
+  }
+
+  private void loadVariable(Token name, int depth, int slot) {
+    if (depth == Expr.GLOBAL) {
+      loadInterpreter();
+      loadConstant(name, TOKEN);
+      loadConstant(new GlobalCache(), GLOBAL_CACHE);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "getGlobal",
+              "(L" + INTERPRETER + ";L" + TOKEN + ";L" + GLOBAL_CACHE + ";)Ljava/lang/Object;", false);
+      return;
+    }
+    mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+    pushInt(depth);
+    pushInt(slot);
+    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "getFromEnvt", "(II)Ljava/lang/Object;", false);
+  }
+
+  /**
+   * Leaves the assigned value on the stack : an assignment is an expression.
+   */
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    mv.visitInsn(Opcodes.DUP);
+    int value = nextLocal++;
+    mv.visitVarInsn(Opcodes.ASTORE, value);
+    if (expr.depth == Expr.GLOBAL) {
+      loadInterpreter();
+      loadConstant(expr.name, TOKEN);
+      mv.visitVarInsn(Opcodes.ALOAD, value);
+      loadConstant(new GlobalCache(), GLOBAL_CACHE);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "assignGlobal",
+              "(L" + INTERPRETER + ";L" + TOKEN + ";Ljava/lang/Object;L" + GLOBAL_CACHE + ";)V", false);
+    } else {
+      mv.visitVarInsn(Opcodes.ALOAD, envLocal);
+      pushInt(expr.depth);
+      pushInt(expr.slot);
+      mv.visitVarInsn(Opcodes.ALOAD, value);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "assignToEnvt", "(IILjava/lang/Object;)V", false);
+    }
+    nextLocal--;
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    loadConstant(expr.name, TOKEN);
+    loadConstant(new PropertyCache(), PROPERTY_CACHE);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "get",
+            "(Ljava/lang/Object;L" + TOKEN + ";L" + PROPERTY_CACHE + ";)Ljava/lang/Object;", false);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    loadConstant(expr.name, TOKEN);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "checkFieldOwner",
+            "(Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;", false);
+    loadConstant(expr.name, TOKEN);
+    compile(expr.value);
+    loadConstant(new PropertyCache(), PROPERTY_CACHE);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "set",
+            "(Ljava/lang/Object;L" + TOKEN + ";Ljava/lang/Object;L" + PROPERTY_CACHE + ";)Ljava/lang/Object;", false);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    switch (expr.operator.type()) {
+      case EQUAL_EQUAL -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "equal",
+              "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+      case BANG_EQUAL -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "notEqual",
+              "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+      case GREATER -> binary("greater", expr.operator);
+      case GREATER_EQUAL -> binary("greaterEqual", expr.operator);
+      case LESS -> binary("less", expr.operator);
+      case LESS_EQUAL -> binary("lessEqual", expr.operator);
+      case MINUS -> binary("subtract", expr.operator);
+      case PLUS -> binary("add", expr.operator);
+      case SLASH -> binary("divide", expr.operator);
+      case STAR -> binary("multiply", expr.operator);
+      default -> {
+        mv.visitInsn(Opcodes.POP2);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+      }
+    }
+    return null;
+  }
+
+  private void binary(String operation, Token operator) {
+    loadConstant(operator, TOKEN);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, operation, BINARY, false);
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      mv.visitInsn(Opcodes.ACONST_NULL);
+    } else if (expr.value instanceof Boolean b) {
+      mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", b ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+    } else if (expr.value instanceof String s) {
+      mv.visitLdcInsn(s);
+    } else {
+      //Numbers are boxed once, at compile time
+      loadConstant(expr.value, OBJECT);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    switch (expr.operator.type()) {
+      case MINUS -> {
+        loadConstant(expr.operator, TOKEN);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "negate",
+                "(Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;", false);
+      }
+      case BANG -> {
+        isTruthy();
+        Label isTrue = new Label();
+        Label end = new Label();
+        mv.visitJumpInsn(Opcodes.IFNE, isTrue);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+        mv.visitJumpInsn(Opcodes.GOTO, end);
+        mv.visitLabel(isTrue);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+        mv.visitLabel(end);
+      }
+      default -> {
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The left operand is the result when it short-circuits, so it is kept on the stack until then.
+   */
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    Label end = new Label();
+    compile(expr.left);
+    mv.visitInsn(Opcodes.DUP);
+    isTruthy();
+    mv.visitJumpInsn(expr.operator.type() == OR ? Opcodes.IFNE : Opcodes.IFEQ, end);
+    mv.visitInsn(Opcodes.POP);
+    compile(expr.right);
+    mv.visitLabel(end);
+    return null;
+  }
+
+  /**
+   * Arguments are evaluated after the callee and collected in a list, before the callee is checked.
+   */
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    loadInterpreter();
+    compile(expr.callee);
+    //The arguments array becomes the callee's scope when it is compiled
+    pushInt(expr.arguments.size());
+    mv.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT);
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      mv.visitInsn(Opcodes.DUP);
+      pushInt(i);
+      compile(expr.arguments.get(i));
+      mv.visitInsn(Opcodes.AASTORE);
+    }
+    mv.visitInvokeDynamicInsn("call", "(L" + INTERPRETER + ";Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;",
+            CALL_SITE, expr.paren.line());
+    return null;
+  }
+
+  /**
+   * Pops a value and pushes 1 if it is truthy, 0 otherwise.
+   */
+  private void isTruthy() {
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/jlox/lox/helper/Values", "isTruthy", "(Ljava/lang/Object;)Z", false);
+  }
+
+  /**
+   * Evaluates the condition and jumps to the given label if it is falsey.
+   */
+  private void compileCondition(Expr condition, Label ifFalse) {
+    compile(condition);
+    isTruthy();
+    mv.visitJumpInsn(Opcodes.IFEQ, ifFalse);
+  }
+
+  void pushInt(int value) {
+    if (value >= -1 && value <= 5) {
+      mv.visitInsn(Opcodes.ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      mv.visitIntInsn(Opcodes.BIPUSH, value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      mv.visitIntInsn(Opcodes.SIPUSH, value);
+    } else {
+      mv.visitLdcInsn(value);
+    }
+  }
+}
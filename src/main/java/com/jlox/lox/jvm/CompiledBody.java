@@ -0,0 +1,16 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.pipeline.Interpreter;
+
+/**
+ * The body of a Lox function compiled to JVM bytecode by a {@link BodyCompiler}.
+ */
+public interface CompiledBody {
+
+  /**
+   * @param environment the function's own scope, its parameters already defined.
+   * @return the value of the 'return' statement that ended the body, null if it ran to the end.
+   */
+  Object execute(Interpreter interpreter, Environment environment);
+}
@@ -0,0 +1,103 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.grammar.string.Stmt;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the body of a hot function to a class implementing {@link CompiledBody}.
+ * The class is loaded as a hidden class, so it is unloaded with the function it was compiled for.
+ * Nested functions and classes are created from their syntax tree : they start interpreted, like any other.
+ */
+final class FunctionCompiler extends BodyCompiler {
+
+  private static final String CLASS_NAME = "com/jlox/lox/jvm/CompiledFunction";
+  private static final String FUNCTION = Type.getInternalName(Stmt.Function.class);
+  private static final String CLASS = Type.getInternalName(Stmt.Class.class);
+
+  private final List<Object> constants;
+
+  private FunctionCompiler(MethodVisitor mv, List<Object> constants) {
+    super(mv, 1); //Local 0 is the compiled body itself
+    this.constants = constants;
+  }
+
+  static CompiledBody compile(Stmt.Function function) {
+    List<Object> constants = new ArrayList<>();
+    byte[] bytes = generate(function, constants);
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+      return (CompiledBody) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+              .invoke(constants.toArray());
+    } catch (Throwable e) {
+      throw new IllegalStateException("Could not load the compiled code of <fn " + function.name.lexeme() + ">", e);
+    }
+  }
+
+  private static byte[] generate(Stmt.Function function, List<Object> constants) {
+    ClassWriter cw = classWriter();
+    cw.visit(Opcodes.V17, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, CLASS_NAME, null, OBJECT,
+            new String[]{Type.getInternalName(CompiledBody.class)});
+    cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "constants", "[Ljava/lang/Object;", null, null).visitEnd();
+
+    MethodVisitor init = cw.visitMethod(0, "<init>", "([Ljava/lang/Object;)V", null, null);
+    init.visitCode();
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitVarInsn(Opcodes.ALOAD, 1);
+    init.visitFieldInsn(Opcodes.PUTFIELD, CLASS_NAME, "constants", "[Ljava/lang/Object;");
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    MethodVisitor execute = cw.visitMethod(Opcodes.ACC_PUBLIC, "execute", BODY_DESCRIPTOR, null, null);
+    new FunctionCompiler(execute, constants).compileBody(function.body);
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Constants are handed to the class when it is instantiated, and loaded from its constants array.
+   */
+  @Override
+  void loadConstant(Object value, String type) {
+    constants.add(value);
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitFieldInsn(Opcodes.GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/Object;");
+    pushInt(constants.size() - 1);
+    mv.visitInsn(Opcodes.AALOAD);
+    if (!type.equals(OBJECT)) mv.visitTypeInsn(Opcodes.CHECKCAST, type);
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    loadConstant(stmt, FUNCTION);
+    loadEnvironment();
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "defineFunction",
+            "(L" + FUNCTION + ";L" + ENVIRONMENT + ";)V", false);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    loadConstant(stmt, CLASS);
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+    } else {
+      mv.visitInsn(Opcodes.ACONST_NULL);
+    }
+    loadEnvironment();
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "defineClass",
+            "(L" + CLASS + ";Ljava/lang/Object;L" + ENVIRONMENT + ";)V", false);
+    return null;
+  }
+}
@@ -0,0 +1,46 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.grammar.string.Stmt;
+
+/**
+ * Execution counts of a function, shared by a LoxFunction and the copies bound to instances.
+ * Calls and loop back-edges are counted while the function is interpreted : once they add up to the threshold,
+ * the function is compiled to JVM bytecode, and later calls run the compiled body.
+ */
+public final class FunctionProfile {
+
+  public static final int DEFAULT_THRESHOLD = 1000;
+
+  private static int threshold = DEFAULT_THRESHOLD; //0 keeps every function interpreted
+
+  private final Stmt.Function declaration;
+  private int counter = 0;
+  private CompiledBody compiled;
+
+  public FunctionProfile(Stmt.Function declaration) {
+    this.declaration = declaration;
+  }
+
+  public static void setThreshold(int value) {
+    threshold = value;
+  }
+
+  /**
+   * Counts one call, and compiles the function the first time it turns hot.
+   *
+   * @return the compiled body, null while the function is still interpreted.
+   */
+  public CompiledBody enter() {
+    if (compiled != null) return compiled;
+    if (threshold > 0 && ++counter >= threshold) compiled = FunctionCompiler.compile(declaration);
+    return compiled;
+  }
+
+  public CompiledBody compiled() {
+    return compiled;
+  }
+
+  public void backEdge() {
+    counter++;
+  }
+}
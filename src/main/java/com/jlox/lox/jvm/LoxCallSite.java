@@ -0,0 +1,120 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.TokenType;
+import com.jlox.lox.object.LoxCallable;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.pipeline.Interpreter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * A Lox call compiled to invokedynamic, typed (Interpreter, callee, arguments) -> Object.
+ * The site starts unlinked : each new callee is checked, then cached in front of the previous ones.
+ * Functions are cached on their code, other callables on their identity : a hit skips the callable and arity checks.
+ * Past {@link #MAX_ENTRIES} callees the site is megamorphic and checks every call.
+ */
+public final class LoxCallSite extends MutableCallSite {
+
+  private static final int MAX_ENTRIES = 4;
+
+  private static final MethodHandle FALLBACK;
+  private static final MethodHandle SAME_CODE;
+  private static final MethodHandle SAME_CALLABLE;
+  private static final MethodHandle INVOKE_COMPILED;
+  private static final MethodHandle INVOKE_CALLABLE;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      FALLBACK = lookup.findVirtual(LoxCallSite.class, "fallback",
+              MethodType.methodType(Object.class, Interpreter.class, Object.class, Object[].class));
+      SAME_CODE = lookup.findStatic(LoxCallSite.class, "sameCode",
+              MethodType.methodType(boolean.class, Object.class, Object.class));
+      SAME_CALLABLE = lookup.findStatic(LoxCallSite.class, "sameCallable",
+              MethodType.methodType(boolean.class, Object.class, Object.class));
+      INVOKE_COMPILED = lookup.findStatic(LoxCallSite.class, "invokeCompiled",
+              MethodType.methodType(Object.class, CompiledBody.class, Interpreter.class, Object.class, Object[].class));
+      INVOKE_CALLABLE = lookup.findStatic(LoxCallSite.class, "invokeCallable",
+              MethodType.methodType(Object.class, Interpreter.class, Object.class, Object[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Token paren; //Only its line is known at run time, enough to report errors
+  private int entries = 0;
+
+  private LoxCallSite(MethodType type, Token paren) {
+    super(type);
+    this.paren = paren;
+    setTarget(FALLBACK.bindTo(this));
+  }
+
+  public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, int line) {
+    return new LoxCallSite(type, new Token(TokenType.RIGHT_PAREN, ")", null, line));
+  }
+
+  /**
+   * Reached on a cache miss : checks the callee as the interpreter does, links it, then calls it.
+   */
+  private Object fallback(Interpreter interpreter, Object callee, Object[] args) {
+    if (!(callee instanceof LoxCallable function)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+    if (args.length != function.arity()) {
+      throw new RuntimeError(
+              paren,
+              "Expected " + function.arity() + " arguments but got " + args.length + ".");
+    }
+    if (entries < MAX_ENTRIES) {
+      link(function);
+    } else if (entries == MAX_ENTRIES) {
+      //Megamorphic : drop the chain of guards, every call goes through the checks
+      setTarget(FALLBACK.bindTo(this));
+      entries++;
+    }
+    return function.call(interpreter, args);
+  }
+
+  /**
+   * Puts a guarded entry for the callee in front of the cache.
+   * A compiled function's body is bound as a constant, letting HotSpot inline it into the caller.
+   */
+  private void link(LoxCallable callee) {
+    MethodHandle test;
+    MethodHandle target;
+    if (callee instanceof LoxFunction function) {
+      test = MethodHandles.insertArguments(SAME_CODE, 1, function.code());
+      CompiledBody body = function.compiledBody();
+      target = body != null ? MethodHandles.insertArguments(INVOKE_COMPILED, 0, body) : INVOKE_CALLABLE;
+    } else {
+      test = MethodHandles.insertArguments(SAME_CALLABLE, 1, callee);
+      target = INVOKE_CALLABLE;
+    }
+    test = MethodHandles.dropArguments(test, 0, Interpreter.class);
+    setTarget(MethodHandles.guardWithTest(test, target, getTarget()));
+    entries++;
+  }
+
+  private static boolean sameCode(Object callee, Object code) {
+    return callee instanceof LoxFunction function && function.code() == code;
+  }
+
+  private static boolean sameCallable(Object callee, Object callable) {
+    return callee == callable;
+  }
+
+  private static Object invokeCompiled(CompiledBody body, Interpreter interpreter, Object callee, Object[] args) {
+    return ((LoxFunction) callee).invokeCompiled(body, interpreter, args);
+  }
+
+  private static Object invokeCallable(Interpreter interpreter, Object callee, Object[] args) {
+    return ((LoxCallable) callee).call(interpreter, args);
+  }
+}
@@ -0,0 +1,195 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.Lox;
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.object.Environment;
+import com.jlox.lox.object.GlobalCache;
+import com.jlox.lox.object.LoxClass;
+import com.jlox.lox.object.LoxFunction;
+import com.jlox.lox.object.LoxInstance;
+import com.jlox.lox.object.PropertyCache;
+import com.jlox.lox.pipeline.Interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.jlox.lox.helper.Values.isEqual;
+import static com.jlox.lox.helper.Values.stringify;
+
+/**
+ * Operations the compiled bytecode calls into, one static method per Lox operation.
+ * Their checks and error messages are those of the {@link Interpreter}, so a function behaves the same in every tier.
+ * Public, since scripts compiled ahead of time are classes of their own package.
+ */
+public final class LoxRuntime {
+
+  private LoxRuntime() {
+  }
+
+  public static Object getGlobal(Interpreter interpreter, Token name, GlobalCache cache) {
+    return cache.get(interpreter.globals, name);
+  }
+
+  public static void assignGlobal(Interpreter interpreter, Token name, Object value, GlobalCache cache) {
+    cache.assign(interpreter.globals, name, value);
+  }
+
+  public static Object greater(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left > (double) right;
+  }
+
+  public static Object greaterEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left >= (double) right;
+  }
+
+  public static Object less(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left < (double) right;
+  }
+
+  public static Object lessEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left <= (double) right;
+  }
+
+  public static Object equal(Object left, Object right) {
+    return isEqual(left, right);
+  }
+
+  public static Object notEqual(Object left, Object right) {
+    return !isEqual(left, right);
+  }
+
+  public static Object subtract(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left - (double) right;
+  }
+
+  public static Object add(Object left, Object right, Token operator) {
+    if (left instanceof Double l && right instanceof Double r) return l + r;
+    if (left instanceof String l && (right instanceof Double || right instanceof String)) return l + right;
+    throw new RuntimeError(operator, "Operands must be two numbers or left operand must be a String.");
+  }
+
+  public static Object divide(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    if ((double) right == 0) throw new RuntimeError(operator, "Division by zero!");
+    return (double) left / (double) right;
+  }
+
+  public static Object multiply(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left * (double) right;
+  }
+
+  public static Object negate(Object operand, Token operator) {
+    if (!(operand instanceof Double)) throw new RuntimeError(operator, "Operand must be a number.");
+    return -(double) operand;
+  }
+
+  public static Object get(Object obj, Token name, PropertyCache cache) {
+    if (obj instanceof LoxInstance instance) return cache.get(instance, name);
+    throw new RuntimeError(name, "Only instances have properties.");
+  }
+
+  /**
+   * Checked before the assigned value is evaluated, as the interpreter does.
+   */
+  public static Object checkFieldOwner(Object obj, Token name) {
+    if (!(obj instanceof LoxInstance)) throw new RuntimeError(name, "Only instances have fields.");
+    return obj;
+  }
+
+  public static Object set(Object obj, Token name, Object value, PropertyCache cache) {
+    cache.set((LoxInstance) obj, name, value);
+    return value;
+  }
+
+  public static Object superMethod(Environment environment, int depth, int slot, Token method) {
+    LoxClass superclass = (LoxClass) environment.getFromEnvt(depth, slot);
+    //'this' is the only variable of the environment just inside the one holding 'super'
+    LoxInstance obj = (LoxInstance) environment.getFromEnvt(depth - 1, 0);
+    LoxFunction function = superclass.findMethod(method.symbol());
+    if (function == null) {
+      throw new RuntimeError(method, "Undefined property '" + method.lexeme() + "'.");
+    }
+    return function.bind(obj);
+  }
+
+  public static void print(Object value) {
+    System.out.println(stringify(value));
+  }
+
+  public static void defineFunction(Stmt.Function declaration, Environment environment) {
+    environment.define(declaration.name.lexeme(), declaration.slot, new LoxFunction(false, declaration, environment));
+  }
+
+  /**
+   * Mirrors Interpreter.visitClassStmt, the superclass being already evaluated by the compiled code.
+   */
+  public static void defineClass(Stmt.Class declaration, Object superclass, Environment environment) {
+    if (declaration.superclass != null && !(superclass instanceof LoxClass)) {
+      throw new RuntimeError(declaration.superclass.name, "Superclass must be a class.");
+    }
+    Environment methodsEnv = environment;
+    if (superclass != null) {
+      methodsEnv = new Environment(environment, 1);
+      methodsEnv.define("super", superclass);
+    }
+
+    Map<String, LoxFunction> methods = new HashMap<>();
+    for (Stmt.Function method : declaration.methods) {
+      LoxFunction function = new LoxFunction(
+              method.name.lexeme().equals("init"), method, methodsEnv);
+      methods.put(method.name.lexeme(), function);
+    }
+    String name = declaration.name.lexeme();
+    environment.define(name, declaration.slot, new LoxClass(name, (LoxClass) superclass, methods));
+  }
+
+  /**
+   * Mirrors Interpreter.visitClassStmt for a class compiled ahead of time, whose methods still have no closure.
+   */
+  public static void defineCompiledClass(String name,
+                                         int slot,
+                                         Object superclass,
+                                         Token superclassName,
+                                         AotFunction[] compiledMethods,
+                                         Environment environment) {
+    if (superclassName != null && !(superclass instanceof LoxClass)) {
+      throw new RuntimeError(superclassName, "Superclass must be a class.");
+    }
+    Environment methodsEnv = environment;
+    if (superclass != null) {
+      methodsEnv = new Environment(environment, 1);
+      methodsEnv.define("super", superclass);
+    }
+
+    Map<String, LoxFunction> methods = new HashMap<>();
+    for (AotFunction method : compiledMethods) {
+      methods.put(method.name(), method.closeOver(methodsEnv));
+    }
+    environment.define(name, slot, new LoxClass(name, (LoxClass) superclass, methods));
+  }
+
+  /**
+   * Entry point of a script compiled ahead of time : runs its top-level code in a fresh global environment.
+   */
+  public static void runScript(CompiledBody script) {
+    Interpreter interpreter = new Interpreter();
+    try {
+      script.execute(interpreter, interpreter.globals);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+}
@@ -0,0 +1,303 @@
+package com.jlox.lox.jvm;
+
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.TokenType;
+import com.jlox.lox.object.GlobalCache;
+import com.jlox.lox.object.PropertyCache;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Compiles a whole resolved script, ahead of time, to a single class file with a main method.
+ * The top-level code and every function and method become static methods of that class.
+ * An instance of the class is the compiled body of one of them : it is what an {@link AotFunction} calls.
+ * Tokens and numbers the code needs are rebuilt once, when the class is initialized.
+ */
+public final class ScriptCompiler extends BodyCompiler {
+
+  private static final String AOT_FUNCTION = Type.getInternalName(AotFunction.class);
+  private static final String AOT_FUNCTION_INIT =
+          "(Ljava/lang/String;IIZL" + Type.getInternalName(CompiledBody.class) + ";L" + ENVIRONMENT + ";)V";
+  private static final int SCRIPT_ID = 0; //Id of the top-level code, functions are numbered from 1
+
+  private final Unit unit;
+  private Label statementEnd; //End of the top-level statement being compiled, null in function bodies
+
+  private ScriptCompiler(MethodVisitor mv, Unit unit) {
+    super(mv, 0);
+    this.unit = unit;
+  }
+
+  /**
+   * @param className binary name of the class to generate, in the unnamed package.
+   * @return the content of the class file.
+   */
+  public static byte[] compile(String className, List<Stmt> statements) {
+    Unit unit = new Unit(className);
+    ClassWriter cw = unit.cw;
+    cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null, OBJECT,
+            new String[]{Type.getInternalName(CompiledBody.class)});
+    cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "id", "I", null, null).visitEnd();
+    cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+            "constants", "[Ljava/lang/Object;", null, null).visitEnd();
+    cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+            "bodies", "[L" + className + ";", null, null).visitEnd();
+
+    ScriptCompiler script = new ScriptCompiler(unit.bodyMethod(SCRIPT_ID), unit);
+    script.compileScript(statements);
+    //Compiling a body may queue the functions it declares
+    while (!unit.pending.isEmpty()) {
+      int id = unit.pending.poll();
+      new ScriptCompiler(unit.bodyMethod(id), unit).compileBody(unit.functions.get(id - 1).body);
+    }
+
+    unit.generateConstructor();
+    unit.generateDispatch();
+    unit.generateMain();
+    unit.generateConstants();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Like the interpreter's, a 'break' outside of any loop only ends the top-level statement it is in.
+   */
+  private void compileScript(List<Stmt> statements) {
+    mv.visitCode();
+    for (Stmt stmt : statements) {
+      statementEnd = new Label();
+      compile(stmt);
+      mv.visitLabel(statementEnd);
+    }
+    mv.visitInsn(Opcodes.ACONST_NULL);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  @Override
+  void exitOutsideLoop() {
+    if (statementEnd == null) {
+      super.exitOutsideLoop();
+    } else {
+      mv.visitJumpInsn(Opcodes.GOTO, statementEnd);
+    }
+  }
+
+  @Override
+  void loadConstant(Object value, String type) {
+    unit.constants.add(value);
+    mv.visitFieldInsn(Opcodes.GETSTATIC, unit.className, "constants", "[Ljava/lang/Object;");
+    pushInt(unit.constants.size() - 1);
+    mv.visitInsn(Opcodes.AALOAD);
+    if (!type.equals(OBJECT)) mv.visitTypeInsn(Opcodes.CHECKCAST, type);
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    loadEnvironment();
+    mv.visitLdcInsn(stmt.name.lexeme());
+    pushInt(stmt.slot);
+    newFunction(stmt, false, true);
+    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "define", DEFINE, false);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    mv.visitLdcInsn(stmt.name.lexeme());
+    pushInt(stmt.slot);
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+      loadConstant(stmt.superclass.name, TOKEN);
+    } else {
+      mv.visitInsn(Opcodes.ACONST_NULL);
+      mv.visitInsn(Opcodes.ACONST_NULL);
+    }
+    pushInt(stmt.methods.size());
+    mv.visitTypeInsn(Opcodes.ANEWARRAY, AOT_FUNCTION);
+    for (int i = 0; i < stmt.methods.size(); i++) {
+      Stmt.Function method = stmt.methods.get(i);
+      mv.visitInsn(Opcodes.DUP);
+      pushInt(i);
+      newFunction(method, method.name.lexeme().equals("init"), false);
+      mv.visitInsn(Opcodes.AASTORE);
+    }
+    loadEnvironment();
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "defineCompiledClass",
+            "(Ljava/lang/String;ILjava/lang/Object;L" + TOKEN + ";[L" + AOT_FUNCTION + ";L" + ENVIRONMENT + ";)V", false);
+    return null;
+  }
+
+  /**
+   * Pushes a new AotFunction running the function's static method, queued to be compiled.
+   *
+   * @param closeOver false for methods, which get their closure when the class is defined.
+   */
+  private void newFunction(Stmt.Function function, boolean isInitializer, boolean closeOver) {
+    unit.functions.add(function);
+    int id = unit.functions.size();
+    unit.pending.add(id);
+    mv.visitTypeInsn(Opcodes.NEW, AOT_FUNCTION);
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitLdcInsn(function.name.lexeme());
+    pushInt(function.params.size());
+    pushInt(function.size);
+    mv.visitInsn(isInitializer ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+    unit.loadBody(mv, id);
+    if (closeOver) {
+      loadEnvironment();
+    } else {
+      mv.visitInsn(Opcodes.ACONST_NULL);
+    }
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, AOT_FUNCTION, "<init>", AOT_FUNCTION_INIT, false);
+  }
+
+  /**
+   * The class being generated.
+   */
+  private static final class Unit {
+
+    final String className;
+    final ClassWriter cw = classWriter();
+    final List<Object> constants = new ArrayList<>();
+    final List<Stmt.Function> functions = new ArrayList<>(); //A function's id is its index plus one
+    final Deque<Integer> pending = new ArrayDeque<>(); //Ids of the functions whose body is still to compile
+
+    Unit(String className) {
+      this.className = className;
+    }
+
+    MethodVisitor bodyMethod(int id) {
+      return cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "body" + id, BODY_DESCRIPTOR, null, null);
+    }
+
+    /**
+     * Pushes the instance of the class standing for the body with the given id.
+     * There is one per body, so the functions sharing a declaration share their body, which call sites cache on.
+     */
+    void loadBody(MethodVisitor mv, int id) {
+      mv.visitFieldInsn(Opcodes.GETSTATIC, className, "bodies", "[L" + className + ";");
+      mv.visitLdcInsn(id);
+      mv.visitInsn(Opcodes.AALOAD);
+    }
+
+    void generateConstructor() {
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "(I)V", null, null);
+      mv.visitCode();
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitVarInsn(Opcodes.ILOAD, 1);
+      mv.visitFieldInsn(Opcodes.PUTFIELD, className, "id", "I");
+      mv.visitInsn(Opcodes.RETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+
+    /**
+     * CompiledBody.execute() switches on the id to the body's static method.
+     */
+    void generateDispatch() {
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "execute", BODY_DESCRIPTOR, null, null);
+      mv.visitCode();
+      Label[] bodies = new Label[functions.size() + 1];
+      for (int i = 0; i < bodies.length; i++) bodies[i] = new Label();
+      Label unknown = new Label();
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitFieldInsn(Opcodes.GETFIELD, className, "id", "I");
+      mv.visitTableSwitchInsn(0, bodies.length - 1, unknown, bodies);
+      for (int i = 0; i < bodies.length; i++) {
+        mv.visitLabel(bodies[i]);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, className, "body" + i, BODY_DESCRIPTOR, false);
+        mv.visitInsn(Opcodes.ARETURN);
+      }
+      mv.visitLabel(unknown);
+      mv.visitTypeInsn(Opcodes.NEW, "java/lang/IllegalStateException");
+      mv.visitInsn(Opcodes.DUP);
+      mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V", false);
+      mv.visitInsn(Opcodes.ATHROW);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+
+    void generateMain() {
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+              "main", "([Ljava/lang/String;)V", null, null);
+      mv.visitCode();
+      loadBody(mv, SCRIPT_ID);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "runScript",
+              "(L" + Type.getInternalName(CompiledBody.class) + ";)V", false);
+      mv.visitInsn(Opcodes.RETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+
+    /**
+     * Tokens are only used for error reporting and global names : their type, lexeme and line are enough.
+     * Property and global caches start empty.
+     * The instances standing for the bodies are built once, after the constants.
+     */
+    void generateConstants() {
+      MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+      mv.visitCode();
+      mv.visitLdcInsn(constants.size());
+      mv.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT);
+      for (int i = 0; i < constants.size(); i++) {
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitLdcInsn(i);
+        if (constants.get(i) instanceof Token token) {
+          mv.visitTypeInsn(Opcodes.NEW, TOKEN);
+          mv.visitInsn(Opcodes.DUP);
+          String tokenType = Type.getInternalName(TokenType.class);
+          mv.visitFieldInsn(Opcodes.GETSTATIC, tokenType, token.type().name(), "L" + tokenType + ";");
+          mv.visitLdcInsn(token.lexeme());
+          mv.visitInsn(Opcodes.ACONST_NULL);
+          mv.visitLdcInsn(token.line());
+          mv.visitMethodInsn(Opcodes.INVOKESPECIAL, TOKEN, "<init>",
+                  "(L" + tokenType + ";Ljava/lang/String;Ljava/lang/Object;I)V", false);
+        } else if (constants.get(i) instanceof PropertyCache) {
+          mv.visitTypeInsn(Opcodes.NEW, PROPERTY_CACHE);
+          mv.visitInsn(Opcodes.DUP);
+          mv.visitMethodInsn(Opcodes.INVOKESPECIAL, PROPERTY_CACHE, "<init>", "()V", false);
+        } else if (constants.get(i) instanceof GlobalCache) {
+          mv.visitTypeInsn(Opcodes.NEW, GLOBAL_CACHE);
+          mv.visitInsn(Opcodes.DUP);
+          mv.visitMethodInsn(Opcodes.INVOKESPECIAL, GLOBAL_CACHE, "<init>", "()V", false);
+        } else {
+          mv.visitLdcInsn(constants.get(i));
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+        }
+        mv.visitInsn(Opcodes.AASTORE);
+      }
+      mv.visitFieldInsn(Opcodes.PUTSTATIC, className, "constants", "[Ljava/lang/Object;");
+
+      mv.visitLdcInsn(functions.size() + 1);
+      mv.visitTypeInsn(Opcodes.ANEWARRAY, className);
+      for (int id = 0; id <= functions.size(); id++) {
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitLdcInsn(id);
+        mv.visitTypeInsn(Opcodes.NEW, className);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitLdcInsn(id);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, className, "<init>", "(I)V", false);
+        mv.visitInsn(Opcodes.AASTORE);
+      }
+      mv.visitFieldInsn(Opcodes.PUTSTATIC, className, "bodies", "[L" + className + ";");
+      mv.visitInsn(Opcodes.RETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+  }
+}
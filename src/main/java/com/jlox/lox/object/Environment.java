@@ -1,89 +1,150 @@
 package com.jlox.lox.object;
 
 import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Symbols;
 import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.helper.SymbolMap;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
 
+  private static final Object[] NO_SLOTS = new Object[0];
+  private static final Object UNDEFINED = new Object(); //Held by a global's slot until its declaration has run
+
   public final Environment enclosing;
 
   /**
    * Most tokens refer to a unit of code at a specific place in the source text.
    * Unlike these tokens, Identifier tokens should always refer to the same variable.
-   * Hence, the choice of String as keys.
+   * Hence, the choice of the name's symbol id as keys.
+   * Only the global environment has names : they map to the slots holding the globals.
+   * Globals are late bound, but a name keeps its slot forever : an access site resolves it once, then caches it.
    */
-  private final Map<String, Object> values = new HashMap<>();
+  private final SymbolMap<Integer> globalSlots;
+
+  /**
+   * Local scopes store their variables in declaration order.
+   * The Resolver gives every local the same index, so reading a local is an array load.
+   * The global scope stores its variables in the slots their names were given.
+   */
+  private Object[] slots;
+  private int count = 0;
 
   /**
    * For global scope Environment : ends the parent-pointer tree.
    */
   public Environment() {
     this.enclosing = null;
+    this.globalSlots = new SymbolMap<>();
+    this.slots = NO_SLOTS;
   }
 
   /**
    * Creates new local scope within an enclosing Environment.
    */
   public Environment(Environment enclosing) {
+    this(enclosing, 4);
+  }
+
+  /**
+   * @param capacity number of variables the scope is expected to declare, it grows if more are defined.
+   */
+  public Environment(Environment enclosing, int capacity) {
     this.enclosing = enclosing;
+    this.globalSlots = null;
+    this.slots = capacity == 0 ? NO_SLOTS : new Object[capacity];
   }
 
   /**
-   * If the variable is found, return the value bound to it.
-   * Walks up the chain of Environments to find the variable.
+   * The scope of a function's call : its arguments take the first slots, in order.
    */
-  public Object get(Token name) {
-    if (values.containsKey(name.lexeme())) {
-      return values.get(name.lexeme());
-    }
-    if (enclosing != null) return enclosing.get(name);
-    //It's ok to refer to a variable before it is defined only if the statement doesn't cause the variable to be evaluated
-    throw new RuntimeError(name, "Undefined variable while getting '" + name + "'.");
+  public Environment(Environment enclosing, Object[] args) {
+    this(enclosing, args, args.length);
   }
 
-  public Object getFromEnvt(Integer scope, String lexeme) {
-    return parent(scope).values.get(lexeme);
+  /**
+   * @param capacity parameters plus the variables the body declares : the arguments array is widened to it once.
+   */
+  public Environment(Environment enclosing, Object[] args, int capacity) {
+    this.enclosing = enclosing;
+    this.globalSlots = null;
+    this.slots = capacity > args.length ? Arrays.copyOf(args, capacity) : args;
+    this.count = args.length;
   }
 
+  /**
+   * Returns the slot of the global variable with this name, reserving a new one on first use.
+   *
+   * @param name symbol id of the name.
+   */
+  public int globalSlot(int name) {
+    Integer slot = globalSlots.get(name);
+    if (slot != null) return slot;
+
+    int created = globalSlots.size();
+    if (created == slots.length) slots = Arrays.copyOf(slots, Math.max(16, created * 2));
+    slots[created] = UNDEFINED;
+    globalSlots.put(name, created);
+    return created;
+  }
 
   /**
-   * We voluntarily don't check if the name is present in values : this allows variable redefinition.
+   * If the global variable is defined, return the value bound to it.
    */
-  public void define(String lexeme, Object value) {
-    if (values.containsKey(lexeme)) {
-      throw new RuntimeError(null, "A variable named '" + lexeme +  "' has already been declared before.");
-    }
-    values.put(lexeme, value);
+  public Object getGlobal(int slot, Token name) {
+    Object value = slots[slot];
+    //It's ok to refer to a variable before it is defined only if the statement doesn't cause the variable to be evaluated
+    if (value == UNDEFINED) throw new RuntimeError(name, "Use of undeclared variable '" + name.lexeme() + "'.");
+    return value;
+  }
+
+  public Object getFromEnvt(int scope, int slot) {
+    return parent(scope).slots[slot];
   }
 
   /**
-   * Assignment cannot create a new variable.
-   * Walks up the Environment parent-pointer tree.
+   * Global variables cannot be declared twice.
+   * A local variable takes the next slot : used for the variables the engines bind themselves, such as 'this'.
    */
-  public void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme())) {
-      values.put(name.lexeme(), value);
+  public void define(String lexeme, Object value) {
+    if (globalSlots != null) {
+      int slot = globalSlot(Symbols.intern(lexeme));
+      if (slots[slot] != UNDEFINED) {
+        throw new RuntimeError(null, "A variable named '" + lexeme + "' has already been declared before.");
+      }
+      slots[slot] = value;
       return;
     }
+    if (count == slots.length) slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+    slots[count++] = value;
+  }
 
-    if (enclosing != null) {
-      enclosing.assign(name, value);
+  /**
+   * Defines a declared variable : a global by name, a local at the slot the Resolver gave it.
+   * Blocks flattened into this scope reuse the same slots each time they run, and after they end.
+   */
+  public void define(String lexeme, int slot, Object value) {
+    if (globalSlots != null) {
+      define(lexeme, value);
       return;
     }
-
-    throw new RuntimeError(name, "Undefined variable while assigning '" + name.lexeme() + "'.");
+    if (slot >= slots.length) slots = Arrays.copyOf(slots, Math.max(4, slot * 2));
+    slots[slot] = value;
   }
 
-  public void assignToEnvt(int scope, Token token, Object value) {
-    final Environment environment = parent(scope);
-
-    if (!environment.values.containsKey(token.lexeme())) {
-      throw new RuntimeError(token, "Assigning to undefined variable '" + token.lexeme() + "'.");
+  /**
+   * Assignment to a global cannot create a new variable.
+   */
+  public void assignGlobal(int slot, Token name, Object value) {
+    if (slots[slot] == UNDEFINED) {
+      throw new RuntimeError(name, "Undefined variable while assigning '" + name.lexeme() + "'.");
     }
-    environment.values.put(token.lexeme(), value);
+    slots[slot] = value;
+  }
+
+  public void assignToEnvt(int scope, int slot, Object value) {
+    parent(scope).slots[slot] = value;
   }
 
   private Environment parent(int hops) {
@@ -96,10 +157,4 @@ public class Environment {
     return current;
   }
 
-  public boolean contains(Token token) {
-    if (values.containsKey(token.lexeme())) return true;
-    if (enclosing != null) return enclosing.contains(token);
-    return false;
-  }
-
 }
@@ -0,0 +1,33 @@
+package com.jlox.lox.object;
+
+import com.jlox.lox.grammar.token.Token;
+
+/**
+ * Cache of one access site of a global variable : remembers the slot of the name in the last global scope it saw.
+ * A name keeps its slot for good, declared yet or not : a redefinition writes the same slot, so the cache never goes stale.
+ * On a hit, reading the global is a check and an array load, with no lookup by name.
+ */
+public final class GlobalCache {
+
+  private Environment globals;
+  private int slot;
+
+  public Object get(Environment globals, Token name) {
+    return globals.getGlobal(slotIn(globals, name), name);
+  }
+
+  public void assign(Environment globals, Token name, Object value) {
+    globals.assignGlobal(slotIn(globals, name), name, value);
+  }
+
+  /**
+   * Scripts compiled ahead of time and the tests run in global scopes of their own : a site may see several.
+   */
+  private int slotIn(Environment globals, Token name) {
+    if (globals != this.globals) {
+      slot = globals.globalSlot(name.symbol());
+      this.globals = globals;
+    }
+    return slot;
+  }
+}
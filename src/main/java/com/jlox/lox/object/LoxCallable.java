@@ -2,11 +2,13 @@ package com.jlox.lox.object;
 
 import com.jlox.lox.pipeline.Interpreter;
 
-import java.util.List;
-
 public interface LoxCallable {
 
-  Object call(Interpreter interpreter, List<Object> args);
+  /**
+   * @param args exactly arity() values, checked by the caller. The array is handed over :
+   *             a function adopts it as the scope of its call, so the caller must not reuse it.
+   */
+  Object call(Interpreter interpreter, Object[] args);
 
   int arity();
 }
@@ -1,39 +1,49 @@
 package com.jlox.lox.object;
 
+import com.jlox.lox.grammar.token.Symbols;
+import com.jlox.lox.helper.SymbolMap;
 import com.jlox.lox.pipeline.Interpreter;
 
-import java.util.List;
 import java.util.Map;
 
+/**
+ * The method table is flattened when the class is created : it holds the class's own methods
+ * and every inherited one it does not override, so a lookup never walks the superclass chain.
+ * The superclass is complete by then and classes never change afterwards.
+ * Methods are keyed by the symbol id of their name.
+ */
 public class LoxClass implements LoxCallable {
 
+  private static final int INIT = Symbols.intern("init");
+
   final String name;
   final LoxClass superclass;
-  private final Map<String, LoxFunction> methods;
+  private final SymbolMap<LoxFunction> methods;
+  private final LoxFunction initializer; //null when neither the class nor a superclass defines init
+  private final int arity;
+  final Shape rootShape = new Shape(this); //Instances start with no field
 
   public LoxClass(String name,
                   LoxClass superclass,
                   Map<String, LoxFunction> methods) {
     this.name = name;
     this.superclass = superclass;
-    this.methods = methods;
+    //Implementing method inheritance : copy down the superclass's table, own methods override it
+    this.methods = superclass == null ? new SymbolMap<>() : new SymbolMap<>(superclass.methods);
+    methods.forEach((method, function) -> this.methods.put(Symbols.intern(method), function));
+    this.initializer = this.methods.get(INIT);
+    this.arity = initializer == null ? 0 : initializer.arity(); //A class is not required to define an initializer!
   }
 
-  public LoxFunction findMethod(String name) {
-    if (methods.containsKey(name)) return methods.get(name);
-
-    //Implementing method inheritance
-    if (superclass != null) return superclass.findMethod(name);
-
-    return null;
+  public LoxFunction findMethod(int name) {
+    return methods.get(name);
   }
 
   @Override
   public Object call(Interpreter interpreter,
-                     List<Object> args) {
+                     Object[] args) {
     LoxInstance instance = new LoxInstance(this);
-    LoxFunction initializer = findMethod("init");
-    if (initializer != null) initializer.bind(instance).call(interpreter, args);
+    if (initializer != null) initializer.invoke(interpreter, instance, args);
     return instance;
   }
 
@@ -43,9 +53,7 @@ public class LoxClass implements LoxCallable {
    */
   @Override
   public int arity() {
-    LoxFunction initializer = findMethod("init");
-    if (initializer == null) return 0; //A class is not required to define an initializer!
-    return initializer.arity();
+    return arity;
   }
 
   @Override
@@ -1,51 +1,111 @@
 package com.jlox.lox.object;
 
-import com.jlox.lox.exception.CtrlFlow;
 import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.jvm.CompiledBody;
+import com.jlox.lox.jvm.FunctionProfile;
 import com.jlox.lox.pipeline.Interpreter;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
 
-  private final boolean isInitializer;
-  private final Stmt.Function declaration;
-  private final Environment closure;
+  protected final boolean isInitializer;
+  protected final Stmt.Function declaration;
+  protected final Environment closure;
+  private final FunctionProfile profile; //Shared with the copies bound to instances, so methods get hot too
 
   public LoxFunction(boolean isInitializer,
                      Stmt.Function declaration,
                      Environment closure) {
+    this(isInitializer, declaration, closure, new FunctionProfile(declaration));
+  }
+
+  private LoxFunction(boolean isInitializer,
+                      Stmt.Function declaration,
+                      Environment closure,
+                      FunctionProfile profile) {
     this.isInitializer = isInitializer;
     this.declaration = declaration;
     this.closure = closure;
+    this.profile = profile;
   }
 
-  /**
-   * One function call triggers the creation of its dedicated Environment.
-   * Within this Environment, variables are created using parameters' names and bound to the arguments' values.
-   */
   @Override
   public Object call(Interpreter interpreter,
-                     List<Object> args) {
-    Environment env = new Environment(closure);
-    //Walk the parameters' list and bind variables
-    for (int i = 0; i < declaration.params.size(); i++)
-      env.define(declaration.params.get(i).lexeme(), args.get(i));
-
-    try {
-      /*
-       executeBlock() will then discard the function local environment and restore the one active at the callsite
-       This is where the code of the function becomes a living invocation
-     */
-      interpreter.executeBlock(declaration.body, env);
-    } catch (CtrlFlow.Return returnValue) {
-      if (isInitializer) return closure.getFromEnvt(0, "this");
-      return returnValue.value;
-    }
+                     Object[] args) {
+    return call(interpreter, args, closure);
+  }
+
+  /**
+   * Calls this method on the receiver as the copy bound to it would, without creating that copy.
+   * Used where a method is called right where it is accessed, as in obj.method().
+   */
+  public Object invoke(Interpreter interpreter,
+                       LoxInstance receiver,
+                       Object[] args) {
+    return call(interpreter, args, scopeOf(receiver));
+  }
+
+  /**
+   * One function call triggers the creation of its dedicated Environment, nestled in the given closure.
+   * The arguments array becomes that Environment, widened to the body's locals : parameters are its first slots.
+   * The body is interpreted until the function gets hot, then it runs as compiled JVM bytecode.
+   */
+  protected Object call(Interpreter interpreter,
+                        Object[] args,
+                        Environment closure) {
+    CompiledBody compiled = profile.enter();
+    if (compiled != null) return invokeCompiled(compiled, interpreter, args, closure);
+
+    Environment env = new Environment(closure, args, frameSize());
+
+    /*
+     executeBody() will then discard the function local environment and restore the one active at the callsite
+     This is where the code of the function becomes a living invocation
+    */
+    Completion completion = interpreter.executeBody(declaration.body, env, profile);
+    Object value = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
 
     //init() always returns 'this' even when directly called
-    if (isInitializer) return closure.getFromEnvt(0, "this");
-    return null;
+    if (isInitializer) return closure.getFromEnvt(0, 0);
+    return value;
+  }
+
+  /**
+   * Runs a compiled body of this function : compiled code finds its locals by slot, parameters take the first ones.
+   * Call sites linked to the body call it directly, the arity being checked once at link time.
+   *
+   * @param args becomes the function's scope, the caller must not reuse it.
+   */
+  public Object invokeCompiled(CompiledBody body,
+                               Interpreter interpreter,
+                               Object[] args) {
+    return invokeCompiled(body, interpreter, args, closure);
+  }
+
+  protected Object invokeCompiled(CompiledBody body,
+                                  Interpreter interpreter,
+                                  Object[] args,
+                                  Environment closure) {
+    Object value = body.execute(interpreter, new Environment(closure, args, frameSize()));
+
+    //init() always returns 'this' even when directly called
+    if (isInitializer) return closure.getFromEnvt(0, 0);
+    return value;
+  }
+
+  /**
+   * Two functions with the same code run the same body with the same arity : it is what call sites cache on.
+   * The copies bound to instances share the profile, so a method keeps its code from one instance to the other.
+   */
+  public Object code() {
+    return profile;
+  }
+
+  /**
+   * @return the compiled body, null while the function is still interpreted.
+   */
+  public CompiledBody compiledBody() {
+    return profile.compiled();
   }
 
   @Override
@@ -53,6 +113,13 @@ public class LoxFunction implements LoxCallable {
     return declaration.params.size();
   }
 
+  /**
+   * Slots of the function's scope : its parameters, then the locals of its body, flattened blocks included.
+   */
+  protected int frameSize() {
+    return declaration.size;
+  }
+
   /**
    * Creates a new environment nestled in the method's original closure.
    * When the method is called, that new environment will become the parent of the method's body environment.
@@ -60,9 +127,13 @@ public class LoxFunction implements LoxCallable {
    * It is bound to the instance the method is being accessed from.
    */
   public LoxFunction bind(LoxInstance instance) {
-    Environment env = new Environment(closure);
+    return new LoxFunction(isInitializer, declaration, scopeOf(instance), profile);
+  }
+
+  protected Environment scopeOf(LoxInstance instance) {
+    Environment env = new Environment(closure, 1);
     env.define("this", instance);
-    return new LoxFunction(isInitializer, declaration, env);
+    return env;
   }
 
   @Override
@@ -1,41 +1,32 @@
 package com.jlox.lox.object;
 
-import com.jlox.lox.exception.RuntimeError;
-import com.jlox.lox.grammar.token.Token;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * Fields are stored in an array, in the order they were added : the instance's {@link Shape} maps names to slots.
+ * Property accesses go through a {@link PropertyCache}, so a site seeing instances built alike skips the lookup.
+ */
 public class LoxInstance {
 
-  private LoxClass clazz;
-  private final Map<String, Object> fields = new HashMap<>();
-
-  public LoxInstance(LoxClass clazz) {
-    this.clazz = clazz;
-  }
-
-  public Object get(Token name) {
-    if (fields.containsKey(name.lexeme()))
-      return fields.get(name.lexeme());
+  private static final Object[] NO_VALUES = new Object[0];
 
-    //If no matching field found, lookup methods
-    LoxFunction method = clazz.findMethod(name.lexeme());
-    /*
-    Since the resolver has a scope for 'this', the interpreter needs to create a corresponding environment for it.
-    The environment is created after the method on the instance has been found.
-     */
-    if (method != null) return method.bind(this);
+  Shape shape;
+  Object[] values = NO_VALUES;
 
-    throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+  public LoxInstance(LoxClass clazz) {
+    this.shape = clazz.rootShape;
   }
 
-  public void set(Token name, Object value) {
-    fields.put(name.lexeme(), value);
+  /**
+   * Moves the instance to the shape that has one more field, in the given slot.
+   */
+  void addField(Shape next, int slot) {
+    if (slot == values.length) values = Arrays.copyOf(values, Math.max(4, slot * 2));
+    shape = next;
   }
 
   @Override
   public String toString() {
-    return clazz.name + " instance.";
+    return shape.clazz.name + " instance.";
   }
 }
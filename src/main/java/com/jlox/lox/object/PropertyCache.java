@@ -0,0 +1,70 @@
+package com.jlox.lox.object;
+
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.token.Token;
+
+/**
+ * Monomorphic inline cache of one property access site : remembers the last shape it saw and what the name meant.
+ * On a hit, reading a field is a shape check and an array load, with no lookup by name.
+ * On a miss, the access is resolved on the new shape, which replaces the cached one.
+ */
+public final class PropertyCache {
+
+  private Shape shape;
+  private int slot; //Slot of the field in the cached shape, -1 if the name is a method
+  private LoxFunction method; //Found on the shape's class, for a get of a name that is not a field
+  private Shape added; //For a set adding the field : the shape the instance moves to
+
+  public Object get(LoxInstance instance, Token name) {
+    if (instance.shape != shape) resolve(instance.shape, name);
+    if (slot >= 0) return instance.values[slot];
+    /*
+    Since the resolver has a scope for 'this', the interpreter needs to create a corresponding environment for it.
+    The environment is created after the method on the instance has been found.
+     */
+    return method.bind(instance);
+  }
+
+  /**
+   * For a method called where it is accessed : no bound copy of the method is created.
+   *
+   * @return the method the name designates, null if it is a field, which {@link #get} then reads.
+   */
+  public LoxFunction method(LoxInstance instance, Token name) {
+    if (instance.shape != shape) resolve(instance.shape, name);
+    return method;
+  }
+
+  /**
+   * A field shadows a method of the same name.
+   */
+  private void resolve(Shape current, Token name) {
+    int fieldSlot = current.slotOf(name.symbol());
+    LoxFunction found = fieldSlot < 0 ? current.clazz.findMethod(name.symbol()) : null;
+    if (fieldSlot < 0 && found == null) {
+      throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+    shape = current;
+    slot = fieldSlot;
+    method = found;
+    added = null;
+  }
+
+  public void set(LoxInstance instance, Token name, Object value) {
+    if (instance.shape != shape) {
+      Shape current = instance.shape;
+      int fieldSlot = current.slotOf(name.symbol());
+      shape = current;
+      method = null;
+      if (fieldSlot >= 0) {
+        slot = fieldSlot;
+        added = null;
+      } else {
+        slot = current.size();
+        added = current.with(name.symbol());
+      }
+    }
+    if (added != null) instance.addField(added, slot);
+    instance.values[slot] = value;
+  }
+}
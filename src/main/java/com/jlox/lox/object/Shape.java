@@ -0,0 +1,55 @@
+package com.jlox.lox.object;
+
+import com.jlox.lox.helper.SymbolMap;
+
+/**
+ * The layout of a LoxInstance : which field lives in which slot of its values array, fields being named by symbol id.
+ * Every class has an empty root shape, and adding a field moves an instance to a child shape.
+ * Instances of a class whose fields were added in the same order end up sharing the same shape,
+ * so a shape can be cached where a property is accessed : the same shape means the same slots, class and methods.
+ */
+public final class Shape {
+
+  final LoxClass clazz;
+  private final SymbolMap<Integer> slots; //Shared with nobody : a child copies its parent's slots
+  private SymbolMap<Shape> transitions; //The shapes reached by adding one field, created on first use
+
+  Shape(LoxClass clazz) {
+    this(clazz, new SymbolMap<>());
+  }
+
+  private Shape(LoxClass clazz, SymbolMap<Integer> slots) {
+    this.clazz = clazz;
+    this.slots = slots;
+  }
+
+  /**
+   * @return the slot of the field, -1 if instances of this shape do not have it.
+   */
+  public int slotOf(int name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * Number of fields, the next one added takes this slot.
+   */
+  public int size() {
+    return slots.size();
+  }
+
+  /**
+   * The shape of an instance of this shape once the field is added.
+   */
+  public Shape with(int name) {
+    if (transitions == null) transitions = new SymbolMap<>();
+    Shape next = transitions.get(name);
+    if (next == null) {
+      SymbolMap<Integer> childSlots = new SymbolMap<>(slots);
+      childSlots.put(name, slots.size());
+      next = new Shape(clazz, childSlots);
+      transitions.put(name, next);
+    }
+    return next;
+  }
+}
@@ -1,11 +1,12 @@
 package com.jlox.lox.pipeline;
 
 import com.jlox.lox.Lox;
-import com.jlox.lox.exception.CtrlFlow;
 import com.jlox.lox.exception.RuntimeError;
 import com.jlox.lox.grammar.string.Expr;
 import com.jlox.lox.grammar.string.Stmt;
 import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.helper.Completion;
+import com.jlox.lox.jvm.FunctionProfile;
 import com.jlox.lox.object.Environment;
 import com.jlox.lox.object.LoxCallable;
 import com.jlox.lox.object.LoxClass;
@@ -18,20 +19,24 @@ import java.util.List;
 import java.util.Map;
 
 import static com.jlox.lox.grammar.token.TokenType.*;
+import static com.jlox.lox.helper.Values.isEqual;
+import static com.jlox.lox.helper.Values.isTruthy;
+import static com.jlox.lox.helper.Values.stringify;
 
 /**
  * Provides the evaluation logic for each expression in order to produce a value from chunks of code.
  */
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
 
   public final Environment globals = new Environment(); //Fixed reference to the outermost global environment
   private Environment environment = globals; //Tracks the current environment
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  private Object returnValue; //Value of the last RETURN completion, until the called function takes it
+  private FunctionProfile profile; //Function being interpreted : the back-edges of its loops count towards compiling it
 
   public Interpreter() {
     globals.define("clock", new LoxCallable() {
       @Override
-      public Object call(Interpreter interpreter, List<Object> args) {
+      public Object call(Interpreter interpreter, Object[] args) {
         return (double) System.currentTimeMillis() / 1000.0;
       }
 
@@ -67,34 +72,63 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
-  private void execute(Stmt statement) {
-    statement.accept(this);
-  }
-
-  public void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  private Completion execute(Stmt statement) {
+    return statement.accept(this);
   }
 
+  /**
+   * A flattened block runs in the current Environment : its locals have slots of their own there.
+   */
   @Override
-  public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
-    return null;
+  public Completion visitBlockStmt(Stmt.Block stmt) {
+    return executeBlock(stmt.statements, stmt.flat ? environment : new Environment(environment, stmt.size));
   }
 
-  public void executeBlock(List<Stmt> statements,
-                           Environment environment) {
+  /**
+   * @return the completion of the first statement that did not complete normally, which stops the block.
+   */
+  public Completion executeBlock(List<Stmt> statements,
+                                 Environment environment) {
     Environment previous = this.environment;
     try {
       this.environment = environment;
       //Executes a list of statements in a given current Environment
-      for (Stmt stmt : statements) execute(stmt);
+      for (Stmt stmt : statements) {
+        Completion completion = execute(stmt);
+        if (completion != Completion.NORMAL) return completion;
+      }
+      return Completion.NORMAL;
     } finally {
       this.environment = previous;
     }
   }
 
+  /**
+   * Executes the body of an interpreted function, counting its loops' iterations in its profile.
+   */
+  public Completion executeBody(List<Stmt> body,
+                                Environment environment,
+                                FunctionProfile profile) {
+    FunctionProfile caller = this.profile;
+    try {
+      this.profile = profile;
+      return executeBlock(body, environment);
+    } finally {
+      this.profile = caller;
+    }
+  }
+
+  /**
+   * Called by a function whose body completed with RETURN. Clears the value so the interpreter does not retain it.
+   */
+  public Object takeReturnValue() {
+    Object value = returnValue;
+    returnValue = null;
+    return value;
+  }
+
   @Override
-  public Void visitClassStmt(Stmt.Class stmt) {
+  public Completion visitClassStmt(Stmt.Class stmt) {
     Object superclass = null;
     if (stmt.superclass != null) {
       superclass = evaluate(stmt.superclass);
@@ -103,10 +137,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme(), null); //Declare class name in current environment
-
     if (stmt.superclass != null) {
-      environment = new Environment(environment);
+      environment = new Environment(environment, 1);
       environment.define("super", superclass);
     }
 
@@ -122,25 +154,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     if (superclass != null) {
       environment = environment.enclosing;
     }
-    environment.assign(stmt.name, clazz); //Store the runtime object in the variable previously created
-    return null;
+    //Methods only look the class name up when they run, so the class can be defined once it is complete
+    environment.define(stmt.name.lexeme(), stmt.slot, clazz);
+    return Completion.NORMAL;
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return environment.getFromEnvt(expr.depth, expr.slot);
   }
 
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int hops = locals.get(expr);
-    LoxClass superclass = (LoxClass) environment.getFromEnvt(hops, "super");
+    LoxClass superclass = (LoxClass) environment.getFromEnvt(expr.depth, expr.slot);
     /* the env in which 'this' is bound is always inside the env where we store 'super'
-    => offsetting the scope by one looks up 'this' in super's inner env
+    => offsetting the scope by one looks up 'this', the only variable of super's inner env
      */
-    LoxInstance obj = (LoxInstance) environment.getFromEnvt(hops - 1, "this");
-    LoxFunction method = superclass.findMethod(expr.method.lexeme());
+    LoxInstance obj = (LoxInstance) environment.getFromEnvt(expr.depth - 1, 0);
+    LoxFunction method = superclass.findMethod(expr.method.symbol());
     if (method == null) {
       throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
     }
@@ -152,7 +184,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object obj = evaluate(expr.object);
 
     if (obj instanceof LoxInstance instance)
-      return instance.get(expr.name);
+      return expr.cache.get(instance, expr.name);
 
     //If the evaluated object is not a class instance, eg a literal, throw a runtime error
     throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -167,7 +199,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(expr.value);
-    instance.set(expr.name, value);
+    expr.cache.set(instance, expr.name, value);
 
     return value;
   }
@@ -177,38 +209,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * Converts it to its runtime representation.
    */
   @Override
-  public Void visitFunctionStmt(Stmt.Function stmt) {
+  public Completion visitFunctionStmt(Stmt.Function stmt) {
     //Captures the current environment as closure when creating the function
     LoxFunction function = new LoxFunction(false, stmt, environment);
-    environment.define(stmt.name.lexeme(), function);
-    return null;
+    environment.define(stmt.name.lexeme(), stmt.slot, function);
+    return Completion.NORMAL;
   }
 
   /**
-   * @return Void because statements do not produce value.
+   * @return a Completion rather than a value, because statements do not produce value.
    */
   @Override
-  public Void visitExpressionStmt(Stmt.Expression stmt) {
+  public Completion visitExpressionStmt(Stmt.Expression stmt) {
     evaluate(stmt.expression);
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitPrintStmt(Stmt.Print stmt) {
+  public Completion visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
     System.out.println(stringify(value));
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitVarStmt(Stmt.Var stmt) {
+  public Completion visitVarStmt(Stmt.Var stmt) {
     Object value = null;
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
     }
     //In the absence of an initializer, the value is set to 'nil' in Lox -> null in Java
-    environment.define(stmt.name.lexeme(), value);
-    return null;
+    environment.define(stmt.name.lexeme(), stmt.slot, value);
+    return Completion.NORMAL;
   }
 
   @Override
@@ -287,65 +319,99 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = evaluate(expr.callee);
-
-    List<Object> args = new ArrayList<>();
-    for (Expr arg : expr.arguments) {
-      args.add(evaluate(arg));
+    try {
+      if (expr.callee instanceof Expr.Get get) return invoke(expr, get);
+      return call(expr, evaluate(expr.callee));
+    } catch (StackOverflowError error) {
+      //Calls recurse on the JVM thread's stack : only the VM keeps its frames on the heap
+      throw new RuntimeError(expr.paren, "Stack overflow.");
     }
+  }
+
+  private Object call(Expr.Call expr, Object callee) {
+    Object[] args = evaluateArguments(expr.arguments);
 
     if (!(callee instanceof LoxCallable function)) {
       throw new RuntimeError(expr.paren, "Can only call functions and classes.");
     }
 
-    if (args.size() != function.arity()) {
+    if (args.length != function.arity()) {
       throw new RuntimeError(
               expr.paren,
-              "Expected " + function.arity() + " arguments but got " + args.size() + ".");
+              "Expected " + function.arity() + " arguments but got " + args.length + ".");
     }
     return function.call(this, args);
   }
 
+  /**
+   * obj.method(args) : the method is called on the instance directly, no bound method is created.
+   * A field holding a callable is called as usual.
+   */
+  private Object invoke(Expr.Call expr, Expr.Get get) {
+    Object obj = evaluate(get.object);
+    if (!(obj instanceof LoxInstance instance)) {
+      throw new RuntimeError(get.name, "Only instances have properties.");
+    }
+    LoxFunction method = get.cache.method(instance, get.name);
+    if (method == null) return call(expr, get.cache.get(instance, get.name));
+
+    Object[] args = evaluateArguments(expr.arguments);
+    if (args.length != method.arity()) {
+      throw new RuntimeError(
+              expr.paren,
+              "Expected " + method.arity() + " arguments but got " + args.length + ".");
+    }
+    return method.invoke(this, instance, args);
+  }
+
+  /**
+   * The array becomes the scope of the called function.
+   */
+  private Object[] evaluateArguments(List<Expr> arguments) {
+    Object[] args = new Object[arguments.size()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = evaluate(arguments.get(i));
+    }
+    return args;
+  }
+
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    //Look up the resolved distance in the map
-    final Integer hops = locals.get(expr);
-
-    if (hops != null) {
-      return environment.getFromEnvt(hops, name.lexeme());
+  /**
+   * The Resolver stored the distance and slot of local variables on the node being evaluated.
+   * A global's slot is cached on the node too, once found by name.
+   */
+  private Object lookUpVariable(Expr.Variable expr) {
+    if (expr.depth != Expr.GLOBAL) {
+      return environment.getFromEnvt(expr.depth, expr.slot);
     }
-    if (!globals.contains(name)) {
-      throw new RuntimeError(name, "Use of undeclared variable '" + name.lexeme() + "'.");
-    } //If hops is null, then must be a global variable
-    return globals.get(name);
+    return expr.cache.get(globals, expr.name);
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    final Integer hops = locals.get(expr);
 
-    if (hops != null) {
-      environment.assignToEnvt(hops, expr.name, value);
+    if (expr.depth != Expr.GLOBAL) {
+      environment.assignToEnvt(expr.depth, expr.slot, value);
     } else {
-      globals.assign(expr.name, value);
+      expr.cache.assign(globals, expr.name, value);
     }
 
     return value;
   }
 
   @Override
-  public Void visitIfStmt(Stmt.If stmt) {
+  public Completion visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.thenBranch);
+      return execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
-      execute(stmt.elseBranch);
+      return execute(stmt.elseBranch);
     }
-    return null;
+    return Completion.NORMAL;
   }
 
   /**
@@ -367,47 +433,94 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.While stmt) {
+  public Completion visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
-      try {
-        execute(stmt.body);
-      } catch (CtrlFlow.Break b) {
-        break;
-      } catch (CtrlFlow.Continue ignored) {
-        continue;
-      }
+      Completion completion = execute(stmt.body);
+      if (completion == Completion.BREAK) break;
+      //A return leaves the loop and keeps unwinding up to the enclosing function, a continue goes on looping
+      if (completion == Completion.RETURN) return completion;
+      if (profile != null) profile.backEdge();
     }
-    return null;
+    return Completion.NORMAL;
   }
 
+  /**
+   * The initializer's scope lasts for the whole loop.
+   * As in the while loop a 'for' used to be de-sugared to, a 'continue' skips the increment.
+   */
   @Override
-  public Void visitReturnStmt(Stmt.Return stmt) {
-    Object value = null;
-    if (stmt.value != null) value = evaluate(stmt.value);
-    throw new CtrlFlow.Return(value);
+  public Completion visitForStmt(Stmt.For stmt) {
+    Environment previous = this.environment;
+    try {
+      if (stmt.initializer != null) {
+        this.environment = new Environment(previous, stmt.size);
+        execute(stmt.initializer);
+      }
+      //The counter is the first variable of the initializer's scope
+      if (stmt.counted && environment.getFromEnvt(0, 0) instanceof Double start) return countedLoop(stmt, start);
+
+      while (isTruthy(evaluate(stmt.condition))) {
+        Completion completion = execute(stmt.body);
+        if (completion == Completion.BREAK) break;
+        if (completion == Completion.RETURN) return completion;
+        if (completion == Completion.NORMAL && stmt.increment != null) evaluate(stmt.increment);
+        if (profile != null) profile.backEdge();
+      }
+      return Completion.NORMAL;
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  /**
+   * The counter is kept as a double : comparing and stepping it does not go through its boxed value.
+   * The scope still gets the boxed counter at each step, for the body to read.
+   */
+  private Completion countedLoop(Stmt.For stmt, double start) {
+    Expr.Binary condition = (Expr.Binary) stmt.condition;
+    Expr.Binary step = (Expr.Binary) ((Expr.Assign) stmt.increment).value;
+    double delta = (double) ((Expr.Literal) step.right).value;
+    if (step.operator.type() == MINUS) delta = -delta;
+
+    double counter = start;
+    while (compare(condition.operator, counter, evaluate(condition.right))) {
+      Completion completion = execute(stmt.body);
+      if (completion == Completion.BREAK) break;
+      if (completion == Completion.RETURN) return completion;
+      if (completion == Completion.NORMAL) {
+        counter += delta;
+        environment.assignToEnvt(0, 0, counter);
+      }
+      if (profile != null) profile.backEdge();
+    }
+    return Completion.NORMAL;
+  }
+
+  private boolean compare(Token operator, double left, Object right) {
+    if (!(right instanceof Double bound)) throw new RuntimeError(operator, "Operands must be numbers.");
+    return switch (operator.type()) {
+      case LESS -> left < bound;
+      case LESS_EQUAL -> left <= bound;
+      case GREATER -> left > bound;
+      default -> left >= bound;
+    };
   }
 
   @Override
-  public Void visitBreakStmt(Stmt.Break stmt) {
-    throw new CtrlFlow.Break();
+  public Completion visitReturnStmt(Stmt.Return stmt) {
+    returnValue = null;
+    if (stmt.value != null) returnValue = evaluate(stmt.value);
+    return Completion.RETURN;
   }
 
   @Override
-  public Void visitContinueStmt(Stmt.Continue stmt) {
-    throw new CtrlFlow.Continue();
+  public Completion visitBreakStmt(Stmt.Break stmt) {
+    return Completion.BREAK;
   }
 
-  private String stringify(Object obj) {
-    if (obj == null) return "nil";
-    if (obj instanceof Double) {
-      String txt = obj.toString();
-      if (txt.endsWith(".O")) {
-        //Lox uses double-precision numbers only. For integer values, prints without decimal point
-        txt = txt.substring(0, txt.length() - 2);
-      }
-      return txt;
-    }
-    return obj.toString();
+  @Override
+  public Completion visitContinueStmt(Stmt.Continue stmt) {
+    return Completion.CONTINUE;
   }
 
   /**
@@ -417,18 +530,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return expr.accept(this);
   }
 
-  private boolean isEqual(Object a, Object b) {
-    if (a == null && b == null) return true;
-    if (a == null) return false;
-    return a.equals(b);
-  }
-
-  boolean isTruthy(Object obj) {
-    if (obj == null) return false;
-    if (obj instanceof Boolean b) return b;
-    return true;
-  }
-
   private void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double) return;
     throw new RuntimeError(operator, "Operands must be numbers.");
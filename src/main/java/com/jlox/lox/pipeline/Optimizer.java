@@ -0,0 +1,331 @@
+package com.jlox.lox.pipeline;
+
+import com.jlox.lox.grammar.string.Expr;
+import com.jlox.lox.grammar.string.Stmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jlox.lox.grammar.token.TokenType.*;
+import static com.jlox.lox.helper.Values.isEqual;
+import static com.jlox.lox.helper.Values.isTruthy;
+
+/**
+ * Rewrites the resolved syntax tree before it is handed to an engine : <br>
+ * constant subtrees are folded into literals,<br>
+ * groupings are dropped, the tree already encodes precedence,<br>
+ * operations that give back their operand are simplified away.
+ * A rewrite never changes what a program prints or which runtime error it reports :
+ * an operation that would fail is left for the engine to evaluate.
+ * Nodes that do not change are reused, so the Resolver's bindings on variables stay in place :
+ * a rebuilt node gets the slots and scope sizes of the one it replaces.
+ */
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+  public List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>(statements.size());
+    boolean changed = false;
+    for (Stmt statement : statements) {
+      Stmt stmt = statement.accept(this);
+      changed |= stmt != statement;
+      optimized.add(stmt);
+    }
+    return changed ? optimized : statements;
+  }
+
+  public Expr optimize(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+      Expr folded = fold(expr, l.value, r.value);
+      if (folded != null) return folded;
+    }
+    //x * 1, 1 * x, x / 1 and x - 0 are x itself, as long as x is a number : otherwise they fail
+    switch (expr.operator.type()) {
+      case STAR -> {
+        if (isNumber(right, 1) && isNumeric(left)) return left;
+        if (isNumber(left, 1) && isNumeric(right)) return right;
+      }
+      case SLASH -> {
+        if (isNumber(right, 1) && isNumeric(left)) return left;
+      }
+      case MINUS -> {
+        if (isNumber(right, 0) && isNumeric(left)) return left;
+      }
+      default -> {
+      }
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  /**
+   * Mirrors Interpreter.visitBinaryExpr.
+   *
+   * @return the folded literal, null when the interpreter would report an error.
+   */
+  private Expr fold(Expr.Binary expr, Object left, Object right) {
+    if (expr.operator.type() == EQUAL_EQUAL) return new Expr.Literal(isEqual(left, right));
+    if (expr.operator.type() == BANG_EQUAL) return new Expr.Literal(!isEqual(left, right));
+    if (expr.operator.type() == PLUS && left instanceof String l &&
+            (right instanceof Double || right instanceof String)) {
+      return new Expr.Literal(l + right);
+    }
+    if (!(left instanceof Double l) || !(right instanceof Double r)) return null;
+    return switch (expr.operator.type()) {
+      case GREATER -> new Expr.Literal(l > r);
+      case GREATER_EQUAL -> new Expr.Literal(l >= r);
+      case LESS -> new Expr.Literal(l < r);
+      case LESS_EQUAL -> new Expr.Literal(l <= r);
+      case MINUS -> new Expr.Literal(l - r);
+      case PLUS -> new Expr.Literal(l + r);
+      case SLASH -> r == 0 ? null : new Expr.Literal(l / r);
+      case STAR -> new Expr.Literal(l * r);
+      default -> null;
+    };
+  }
+
+  /**
+   * A grouping only matters to the Parser : it is replaced by the expression it contains.
+   */
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return optimize(expr.expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+
+    if (right instanceof Expr.Literal literal) {
+      if (expr.operator.type() == BANG) return new Expr.Literal(!isTruthy(literal.value));
+      if (expr.operator.type() == MINUS && literal.value instanceof Double d) return new Expr.Literal(-d);
+    }
+    //-(-x) is x for a number, !!x is x for a boolean
+    if (right instanceof Expr.Unary inner && inner.operator.type() == expr.operator.type()) {
+      if (expr.operator.type() == MINUS && isNumeric(inner.right)) return inner.right;
+      if (expr.operator.type() == BANG && isBoolean(inner.right)) return inner.right;
+    }
+
+    if (right == expr.right) return expr;
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  /**
+   * A constant left operand decides the short-circuit : the node becomes one of its operands.
+   */
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal literal) {
+      if (expr.operator.type() == OR) return isTruthy(literal.value) ? left : right;
+      return isTruthy(literal.value) ? right : left;
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (value == expr.value) return expr;
+    Expr.Assign assign = new Expr.Assign(expr.name, value);
+    assign.depth = expr.depth;
+    assign.slot = expr.slot;
+    return assign;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = optimize(expr.callee);
+    List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+    boolean changed = callee != expr.callee;
+    for (Expr argument : expr.arguments) {
+      Expr arg = optimize(argument);
+      changed |= arg != argument;
+      arguments.add(arg);
+    }
+    return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr object = optimize(expr.object);
+    return object == expr.object ? expr : new Expr.Get(object, expr.name);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr object = optimize(expr.object);
+    Expr value = optimize(expr.value);
+    if (object == expr.object && value == expr.value) return expr;
+    return new Expr.Set(object, expr.name, value);
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+    boolean changed = false;
+    for (Stmt.Function method : stmt.methods) {
+      Stmt.Function optimized = (Stmt.Function) visitFunctionStmt(method);
+      changed |= optimized != method;
+      methods.add(optimized);
+    }
+    if (!changed) return stmt;
+    Stmt.Class clazz = new Stmt.Class(stmt.name, stmt.superclass, methods);
+    clazz.slot = stmt.slot;
+    return clazz;
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    List<Stmt> body = optimize(stmt.body);
+    if (body == stmt.body) return stmt;
+    Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+    function.slot = stmt.slot;
+    function.size = stmt.size;
+    return function;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimize(stmt.statements);
+    if (statements == stmt.statements) return stmt;
+    Stmt.Block block = new Stmt.Block(statements);
+    block.flat = stmt.flat;
+    block.size = stmt.size;
+    return block;
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = optimize(stmt.expression);
+    return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = optimize(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+    Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+    var.slot = stmt.slot;
+    return var;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    Stmt thenBranch = stmt.thenBranch.accept(this);
+    Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+    Stmt body = stmt.body.accept(this);
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return new Stmt.While(condition, body);
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer == null ? null : stmt.initializer.accept(this);
+    Expr condition = optimize(stmt.condition);
+    Expr increment = optimize(stmt.increment);
+    Stmt body = stmt.body.accept(this);
+    if (initializer == stmt.initializer && condition == stmt.condition &&
+            increment == stmt.increment && body == stmt.body) {
+      return stmt;
+    }
+    Stmt.For loop = new Stmt.For(initializer, condition, increment, body);
+    //Rewrites keep the shape of the counter's condition and increment
+    loop.counted = stmt.counted;
+    loop.size = stmt.size;
+    return loop;
+  }
+
+  @Override
+  public Stmt visitBreakStmt(Stmt.Break stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitContinueStmt(Stmt.Continue stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    Expr value = optimize(stmt.value);
+    return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+  }
+
+  private static boolean isNumber(Expr expr, double value) {
+    return expr instanceof Expr.Literal literal && literal.value instanceof Double d && d == value;
+  }
+
+  /**
+   * The expression evaluates to a number, or fails on its own.
+   */
+  private static boolean isNumeric(Expr expr) {
+    if (expr instanceof Expr.Literal literal) return literal.value instanceof Double;
+    if (expr instanceof Expr.Unary unary) return unary.operator.type() == MINUS;
+    if (expr instanceof Expr.Binary binary) {
+      return binary.operator.type() == MINUS || binary.operator.type() == STAR || binary.operator.type() == SLASH;
+    }
+    return false;
+  }
+
+  /**
+   * The expression evaluates to a boolean, or fails on its own.
+   */
+  private static boolean isBoolean(Expr expr) {
+    if (expr instanceof Expr.Literal literal) return literal.value instanceof Boolean;
+    if (expr instanceof Expr.Unary unary) return unary.operator.type() == BANG;
+    if (expr instanceof Expr.Binary binary) {
+      return switch (binary.operator.type()) {
+        case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+        default -> false;
+      };
+    }
+    return false;
+  }
+}
@@ -0,0 +1,121 @@
+package com.jlox.lox.pipeline;
+
+import com.jlox.lox.grammar.token.TokenBuffer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.jlox.lox.grammar.token.TokenType.EOF;
+
+/**
+ * Scans a large file in chunks on the common ForkJoin pool, a few chunks ahead of the Parser.
+ * A chunk ends after a newline outside of strings and comments, found by a pre-scan of the bytes :
+ * no token spans two chunks, and the pre-scan counts the lines so each chunk knows the one it starts at.
+ * The Parser pulls the chunks' tokens in order, each chunk's errors being reported once it reaches the chunk.
+ */
+final class ParallelScanner {
+
+  static final int CHUNK_BYTES = 1 << 20;
+
+  private final SourceText source;
+  private final TokenBuffer tokens = new TokenBuffer(this::next);
+  //Chunks being scanned, in source order : one per worker and one more, so memory stays bounded
+  private final Deque<ForkJoinTask<Scanner>> pending = new ArrayDeque<>();
+  private final int ahead = ForkJoinPool.getCommonPoolParallelism() + 1;
+  private int split = 0; //Byte the next chunk to submit starts at
+  private int line = 1; //Line it starts at
+  private TokenBuffer chunk; //Tokens of the chunk being read, null before the first
+  private int read = 0; //Index of the next token to read from it
+
+  ParallelScanner(SourceText source) {
+    this.source = source;
+  }
+
+  /**
+   * Only worth it for a source of a few chunks, with workers to scan them.
+   */
+  static boolean splits(SourceText source) {
+    return source.splittable() && source.byteLength() > 2 * CHUNK_BYTES &&
+            ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+  TokenBuffer tokens() {
+    while (pending.size() < ahead) {
+      if (!submit()) break;
+    }
+    return tokens;
+  }
+
+  /**
+   * Adds the next token of the chunk being read, moving to the next chunk once it is exhausted.
+   */
+  private void next() {
+    while (chunk == null || read == chunk.scanned()) {
+      if (pending.isEmpty()) {
+        tokens.add(EOF, line, 0, null);
+        return;
+      }
+      Scanner scanner = pending.poll().join();
+      scanner.reportErrors();
+      chunk = scanner.tokens();
+      read = 0;
+      submit();
+    }
+    tokens.copy(chunk, read++);
+  }
+
+  /**
+   * @return false if the whole source was already submitted.
+   */
+  private boolean submit() {
+    if (split == source.byteLength()) return false;
+    int from = split;
+    int first = line;
+    split = boundary(from);
+    SourceText text = source.slice(from, split);
+    pending.add(ForkJoinPool.commonPool().submit(() -> new Scanner(text, first).scanChunk()));
+    return true;
+  }
+
+  /**
+   * Runs the Scanner's rules for strings and comments over the bytes from a point outside of them,
+   * counting the newlines the Scanner counts : those of a block comment are not.
+   *
+   * @return the byte after the first newline outside of them, once CHUNK_BYTES are passed, else the end of the source.
+   */
+  private int boundary(int from) {
+    int end = source.byteLength();
+    long target = (long) from + CHUNK_BYTES;
+    int i = from;
+    while (i < end) {
+      byte c = source.byteAt(i++);
+      switch (c) {
+        case '\n' -> {
+          line++;
+          if (i >= target) return i;
+        }
+        case '"' -> {
+          while (i < end && source.byteAt(i) != '"') {
+            if (source.byteAt(i) == '\n') line++;
+            i++;
+          }
+          i++;
+        }
+        case '/' -> {
+          if (i < end && source.byteAt(i) == '/') {
+            //The newline ending the comment is read as any other
+            while (i < end && source.byteAt(i) != '\n') i++;
+          } else if (i < end && source.byteAt(i) == '*') {
+            i++;
+            while (i < end && source.byteAt(i) != '*' && (i + 1 == end || source.byteAt(i + 1) != '/')) i++;
+          }
+        }
+        default -> {
+        }
+      }
+    }
+    return end;
+  }
+}
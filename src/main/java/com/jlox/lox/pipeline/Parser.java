@@ -5,10 +5,10 @@ import com.jlox.lox.exception.ParseError;
 import com.jlox.lox.grammar.string.Expr;
 import com.jlox.lox.grammar.string.Stmt;
 import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.TokenBuffer;
 import com.jlox.lox.grammar.token.TokenType;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static com.jlox.lox.grammar.token.TokenType.AND;
@@ -55,14 +55,14 @@ import static com.jlox.lox.grammar.token.TokenType.WHILE;
 
 public class Parser {
 
-  //Consumes a flat input sequence
-  private final List<Token> tokens;
+  //Pulls a flat input sequence from the Scanner : a token is only built once the parser keeps it
+  private final TokenBuffer tokens;
   //Points to next token to be parsed
   private int current = 0;
   private boolean allowExpr;
   private boolean exprFound = false;
 
-  public Parser(List<Token> tokens) {
+  public Parser(TokenBuffer tokens) {
     this.tokens = tokens;
   }
 
@@ -185,14 +185,8 @@ public class Parser {
 
     Stmt body = statement();
 
-    //De-sugaring the 'for' loop
-    if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-    }
-    body = new Stmt.While(condition, body); //Build the loop using primitive while
-    //If there's an initializer, runs once before the entire loop
-    if (initializer != null) body = new Stmt.Block(Arrays.asList(initializer, body));
-    return body;
+    //Kept as its own node rather than de-sugared to a while loop : the engines run it without a scope per iteration
+    return new Stmt.For(initializer, condition, increment, body);
   }
 
   private Stmt ifStatement() {
@@ -452,7 +446,7 @@ public class Parser {
     if (match(IDENTIFIER)) return new Expr.Variable(previous()); //Parsing variable expression
 
     if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal());
+      return new Expr.Literal(tokens.literal(current - 1));
     }
 
     if (match(LEFT_PAREN)) {
@@ -465,7 +459,10 @@ public class Parser {
   }
 
   private Token consume(TokenType type, String message) {
-    if (check(type)) return advance();
+    if (check(type)) {
+      advance();
+      return previous();
+    }
     throw error(peek(), message);
   }
 
@@ -482,9 +479,9 @@ public class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type() == SEMICOLON) return;
+      if (tokens.type(current - 1) == SEMICOLON) return;
 
-      switch (peek().type()) {
+      switch (tokens.type(current)) {
         case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN -> {
           return;
         }
@@ -510,35 +507,34 @@ public class Parser {
 
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    return peek().type() == type; //Never consumes the token, unlike match()
+    return tokens.type(current) == type; //Never consumes the token, unlike match()
   }
 
   /**
-   * Consumes the current token and returns it.
+   * Consumes the current token : previous() then builds it if it is needed.
    */
-  private Token advance() {
+  private void advance() {
     if (!isAtEnd()) current++;
-    return previous();
   }
 
   /**
    * Checks if we are out of tokens to parse.
    */
   private boolean isAtEnd() {
-    return peek().type() == EOF;
+    return tokens.type(current) == EOF;
   }
 
   /**
-   * Returns the current token we have to consume.
+   * Builds the current token we have to consume.
    */
   private Token peek() {
-    return tokens.get(current);
+    return tokens.token(current);
   }
 
   /**
-   * Returns the most recently consumed token.
+   * Builds the most recently consumed token.
    */
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.token(current - 1);
   }
 }
@@ -4,12 +4,13 @@ import com.jlox.lox.Lox;
 import com.jlox.lox.grammar.string.Expr;
 import com.jlox.lox.grammar.string.Stmt;
 import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.TokenType;
 import com.jlox.lox.helper.FunctionType;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 /**
  * Performs one tree walk between parsing and interpreting to resolve all variables it contains.
@@ -17,17 +18,14 @@ import java.util.Stack;
  * The Resolver is interested in the following syntax tree nodes : <br>
  * block and function declaration statements,<br>
  * variables declarations and assignment.
+ * It also works out which blocks need a scope of their own at run time : a block declaring nothing, or whose locals
+ * no closure can capture, is flattened and its locals take slots of the enclosing scope, freed when the block ends.
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-  private final Interpreter interpreter;
   private ClassType currentClassType = ClassType.NONE;
   private FunctionType currentFunction = FunctionType.NONE;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>(); //Used for local block scopes
-
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
+  private final List<Scope> scopes = new ArrayList<>(); //Used for local block scopes, innermost last
 
   @Override
   public Void visitBinaryExpr(Expr.Binary expr) {
@@ -56,13 +54,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
     if (!scopes.isEmpty() &&
-            scopes.peek().get(expr.name.lexeme()) == Boolean.FALSE) {
+            innermost().locals.containsKey(expr.name.lexeme()) &&
+            !innermost().locals.get(expr.name.lexeme()).defined) {
       //Handle case where value is used while having been declared but not defined
       Lox.error(expr.name,
               "Can't read local variable in its own initializer.");
     }
 
-    resolveLocal(expr, expr.name);
+    Binding binding = resolveLocal(expr.name);
+    if (binding != null) {
+      expr.depth = binding.depth();
+      expr.slot = binding.slot();
+    }
     return null;
   }
 
@@ -71,7 +74,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     //First resolve the expression for the assigned value, in case it references to other variables
     resolve(expr.value);
     //Then resolve the variable being assigned to
-    resolveLocal(expr, expr.name);
+    Binding binding = resolveLocal(expr.name);
+    if (binding != null) {
+      expr.depth = binding.depth();
+      expr.slot = binding.slot();
+      binding.local().assigned = true;
+    }
     return null;
   }
 
@@ -96,7 +104,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
       return null;
     }
-    resolveLocal(expr, expr.keyword);
+    Binding binding = resolveLocal(expr.keyword);
+    if (binding != null) {
+      expr.depth = binding.depth();
+      expr.slot = binding.slot();
+    }
     return null;
   }
 
@@ -107,7 +119,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     } else if (currentClassType == ClassType.CLASS) {
       Lox.error(expr.keyword, "Can't user 'super' in a class with no superclass.");
     }
-    resolveLocal(expr, expr.keyword);
+    Binding binding = resolveLocal(expr.keyword);
+    if (binding != null) {
+      expr.depth = binding.depth();
+      expr.slot = binding.slot();
+    }
     return null;
   }
 
@@ -116,7 +132,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     ClassType enclosingClassType = currentClassType;
     currentClassType = ClassType.CLASS;
 
-    declare(stmt.name);
+    stmt.slot = declare(stmt.name);
     define(stmt.name);
 
     if (stmt.superclass != null &&
@@ -127,13 +143,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (stmt.superclass != null) {
       currentClassType = ClassType.SUBCLASS;
       resolve(stmt.superclass);
-      beginScope();
-      scopes.peek().put("super", true);
+      beginScope(false);
+      defineSynthetic("super");
     }
 
-    beginScope();
+    beginScope(false);
     //Whenever a 'this' expression is encountered inside a method, will resolve to a 'local variable'
-    scopes.peek().put("this", true);
+    defineSynthetic("this");
 
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
@@ -168,17 +184,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
+    stmt.slot = declare(stmt.name);
     define(stmt.name);
     resolveFunction(stmt, FunctionType.FUNCTION);
     return null;
   }
 
+  /**
+   * Only a block declaring a function or a class can have a local captured by a closure :
+   * any other block is flattened, unless it declares locals at the top level, where there is no scope to share.
+   */
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    beginScope();
+    stmt.flat = !declaresFunction(stmt.statements) && (!scopes.isEmpty() || !declaresVariable(stmt.statements));
+    if (stmt.flat && scopes.isEmpty()) {
+      //Declares nothing : its statements are resolved as top-level ones
+      resolve(stmt.statements);
+      return null;
+    }
+    Scope scope = beginScope(stmt.flat);
     resolve(stmt.statements);
     endScope();
+    stmt.size = scope.size;
     return null;
   }
 
@@ -201,7 +228,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    stmt.slot = declare(stmt.name);
     if (stmt.initializer != null) resolve(stmt.initializer);
     define(stmt.name);
     return null;
@@ -222,6 +249,57 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  /**
+   * Same scopes as the while loop the 'for' used to be de-sugared to, minus the one the increment was wrapped in :
+   * the initializer gets a scope for the whole loop, a block body gets its own, or is flattened into the loop's.
+   */
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    Scope scope = null;
+    if (stmt.initializer != null) {
+      scope = beginScope(false);
+      resolve(stmt.initializer);
+    }
+    resolve(stmt.condition);
+    resolve(stmt.body);
+    Local counter = stmt.initializer instanceof Stmt.Var var ? innermost().locals.get(var.name.lexeme()) : null;
+    boolean counterAssigned = counter == null || counter.assigned;
+    if (stmt.increment != null) resolve(stmt.increment);
+    if (scope != null) {
+      endScope();
+      stmt.size = scope.size;
+    }
+
+    stmt.counted = !counterAssigned && isCounted(stmt);
+    return null;
+  }
+
+  /**
+   * The loop counts with a number : a variable compared to a bound, stepped by a constant by the increment.
+   */
+  private static boolean isCounted(Stmt.For stmt) {
+    if (!(stmt.initializer instanceof Stmt.Var var) || var.initializer == null) return false;
+    String counter = var.name.lexeme();
+    if (!(stmt.condition instanceof Expr.Binary condition) || !isVariable(condition.left, counter)) return false;
+    switch (condition.operator.type()) {
+      case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+      }
+      default -> {
+        return false;
+      }
+    }
+    return stmt.increment instanceof Expr.Assign assign &&
+            assign.name.lexeme().equals(counter) && assign.depth == 0 &&
+            assign.value instanceof Expr.Binary step &&
+            (step.operator.type() == TokenType.PLUS || step.operator.type() == TokenType.MINUS) &&
+            isVariable(step.left, counter) &&
+            step.right instanceof Expr.Literal literal && literal.value instanceof Double;
+  }
+
+  private static boolean isVariable(Expr expr, String name) {
+    return expr instanceof Expr.Variable variable && variable.name.lexeme().equals(name) && variable.depth == 0;
+  }
+
   @Override
   public Void visitBreakStmt(Stmt.Break stmt) {
     return null;
@@ -246,12 +324,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
-  private void beginScope() {
-    scopes.push(new HashMap<>());
+  /**
+   * @param flat the scope's locals take the next slots of the enclosing one, which must be local.
+   */
+  private Scope beginScope(boolean flat) {
+    Scope scope = new Scope(flat ? innermost().frame : null);
+    scopes.add(scope);
+    return scope;
   }
 
+  /**
+   * The slots of a flattened scope's locals are free again : the next declarations of the enclosing scope reuse them.
+   */
   private void endScope() {
-    scopes.pop();
+    Scope scope = scopes.remove(scopes.size() - 1);
+    if (scope.frame != scope) scope.frame.next = scope.base;
+  }
+
+  private Scope innermost() {
+    return scopes.get(scopes.size() - 1);
+  }
+
+  /**
+   * Looks for a function or a class declared anywhere in the statements, outside of the functions they declare.
+   */
+  private static boolean declaresFunction(List<Stmt> statements) {
+    for (Stmt stmt : statements) {
+      if (declaresFunction(stmt)) return true;
+    }
+    return false;
+  }
+
+  private static boolean declaresFunction(Stmt stmt) {
+    if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+    if (stmt instanceof Stmt.Block block) return declaresFunction(block.statements);
+    if (stmt instanceof Stmt.If branch) {
+      return declaresFunction(branch.thenBranch) || branch.elseBranch != null && declaresFunction(branch.elseBranch);
+    }
+    if (stmt instanceof Stmt.While loop) return declaresFunction(loop.body);
+    if (stmt instanceof Stmt.For loop) return declaresFunction(loop.body);
+    return false;
+  }
+
+  private static boolean declaresVariable(List<Stmt> statements) {
+    for (Stmt stmt : statements) {
+      if (stmt instanceof Stmt.Var) return true;
+    }
+    return false;
   }
 
   public void resolve(List<Stmt> statements) {
@@ -270,50 +389,107 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   /**
-   * The binding is marked as 'not ready' using 'false', meaning the resolving process is not done yet.
+   * The binding is marked as 'not ready', meaning the resolving process is not done yet.
+   * Each local takes the next free slot of the scope holding it : the engines define it at that slot.
+   *
+   * @return the slot, -1 for a global.
    */
-  private void declare(Token name) {
-    if (scopes.isEmpty()) return;
+  private int declare(Token name) {
+    if (scopes.isEmpty()) return -1;
 
-    Map<String, Boolean> scope = scopes.peek();
-    if (scope.containsKey(name.lexeme())) {
+    Scope scope = innermost();
+    if (scope.locals.containsKey(name.lexeme())) {
       Lox.error(name, "Already a variable with this name in this scope.");
     }
-    scope.put(name.lexeme(), false);
+    Local local = new Local(scope.frame.allocate());
+    scope.locals.put(name.lexeme(), local);
+    return local.slot;
   }
 
   private void define(Token name) {
     if (scopes.isEmpty()) return;
 
-    scopes.peek().put(name.lexeme(), true);
+    innermost().locals.get(name.lexeme()).defined = true;
   }
 
   /**
-   * Start from innermost scope and work outwards.
+   * Declares and defines a variable the interpreter binds implicitly, such as 'this' and 'super'.
    */
-  private void resolveLocal(Expr expr, Token name) {
+  private void defineSynthetic(String name) {
+    Scope scope = innermost();
+    Local local = new Local(scope.frame.allocate());
+    local.defined = true;
+    scope.locals.put(name, local);
+  }
+
+  /**
+   * Start from innermost scope and work outwards : only the scopes that are not flattened count as a hop.
+   *
+   * @return null if no local scope declares the name : the variable is then assumed to be global.
+   */
+  private Binding resolveLocal(Token name) {
+    int depth = 0;
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme())) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
-      }
+      Scope scope = scopes.get(i);
+      Local local = scope.locals.get(name.lexeme());
+      if (local != null) return new Binding(depth, local.slot, local);
+      if (scope.frame == scope) depth++;
     }
+    return null;
   }
 
   private void resolveFunction(Stmt.Function function, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
     currentFunction = type;
 
-    beginScope();
+    Scope scope = beginScope(false);
     for (Token param : function.params) {
       declare(param);
       define(param);
     }
     resolve(function.body);
     endScope();
+    function.size = scope.size;
     currentFunction = enclosingFunction;
   }
 
+  /**
+   * A scope of the source. Unless it is flattened, it is also a scope at run time, holding the slots of its locals.
+   */
+  private static final class Scope {
+    final Map<String, Local> locals = new HashMap<>();
+    final Scope frame; //The scope whose Environment holds the locals : this one, or the one a flattened scope is in
+    final int base; //First slot of the frame this scope uses
+    int next = 0; //For a frame : its next free slot
+    int size = 0; //For a frame : the slots its Environment needs
+
+    /**
+     * @param frame null for a scope that is not flattened.
+     */
+    Scope(Scope frame) {
+      this.frame = frame == null ? this : frame;
+      this.base = this.frame.next;
+    }
+
+    int allocate() {
+      size = Math.max(size, next + 1);
+      return next++;
+    }
+  }
+
+  private static final class Local {
+    final int slot;
+    boolean defined = false;
+    boolean assigned = false; //By an assignment after its declaration
+
+    Local(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  private record Binding(int depth, int slot, Local local) {
+  }
+
   private enum ClassType {
     NONE,
     CLASS,
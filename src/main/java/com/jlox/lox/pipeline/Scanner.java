@@ -1,7 +1,8 @@
 package com.jlox.lox.pipeline;
 
 import com.jlox.lox.Lox;
-import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.grammar.token.Symbols;
+import com.jlox.lox.grammar.token.TokenBuffer;
 import com.jlox.lox.grammar.token.TokenType;
 
 import java.util.ArrayList;
@@ -12,56 +13,123 @@ import java.util.Map;
 import static com.jlox.lox.grammar.token.TokenType.*;
 
 /**
- * Stores the source code as a String from which it generates a list of tokens.
+ * Reads the source code from a {@link SourceText}, from which it feeds a {@link TokenBuffer}.
+ * Scanning is driven by the Parser : a token is only scanned when the Parser reaches it.
+ * A large file is instead cut into chunks, which a {@link ParallelScanner} has scanned ahead of the Parser.
  */
 public class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private final SourceText source;
+  private final TokenBuffer tokens;
+  private final List<LexicalError> errors; //null when errors are reported as they are met
   private int start = 0; //first char in lexeme being scanned
   private int current = 0; //char being considered currently
-  private int line = 1; //tracks what source code's line the current lexeme stands on
+  private int line; //tracks what source code's line the current lexeme stands on
 
-  private static final Map<String, TokenType> keywords;
+  private record LexicalError(int line, String message) {
+  }
+
+  /**
+   * Reserved words, indexed by the symbol id of the word : null for the ids of plain identifiers.
+   */
+  private static final TokenType[] keywords;
 
   static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("break", BREAK);
-    keywords.put("continue", CONTINUE);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
+    Map<String, TokenType> words = new HashMap<>();
+    words.put("and", AND);
+    words.put("class", CLASS);
+    words.put("else", ELSE);
+    words.put("false", FALSE);
+    words.put("for", FOR);
+    words.put("fun", FUN);
+    words.put("if", IF);
+    words.put("nil", NIL);
+    words.put("or", OR);
+    words.put("print", PRINT);
+    words.put("break", BREAK);
+    words.put("continue", CONTINUE);
+    words.put("return", RETURN);
+    words.put("super", SUPER);
+    words.put("this", THIS);
+    words.put("true", TRUE);
+    words.put("var", VAR);
+    words.put("while", WHILE);
+
+    int max = 0;
+    for (String word : words.keySet()) max = Math.max(max, Symbols.intern(word));
+    keywords = new TokenType[max + 1];
+    for (Map.Entry<String, TokenType> word : words.entrySet()) keywords[Symbols.intern(word.getKey())] = word.getValue();
   }
 
   public Scanner(String src) {
-    this.source = src;
+    this(SourceText.of(src));
   }
 
-  public List<Token> scanTokens() {
+  public Scanner(SourceText source) {
+    this.source = source;
+    this.tokens = new TokenBuffer(this::scanNext);
+    this.errors = null;
+    this.line = 1;
+  }
+
+  /**
+   * Scans a chunk of a source, off the Parser's thread : its errors are kept until the Parser reaches it.
+   */
+  Scanner(SourceText chunk, int line) {
+    this.source = chunk;
+    this.tokens = new TokenBuffer();
+    this.errors = new ArrayList<>();
+    this.line = line;
+  }
+
+  /**
+   * The tokens, scanned as the Parser reads them.
+   */
+  public TokenBuffer tokens() {
+    if (errors == null && ParallelScanner.splits(source)) return new ParallelScanner(source).tokens();
+    return tokens;
+  }
+
+  /**
+   * Scans the whole chunk, with no EOF token at its end.
+   */
+  Scanner scanChunk() {
     while (!isAtEnd()) {
+      start = current;
+      source.release(start);
+      scanToken();
+    }
+    return this;
+  }
+
+  void reportErrors() {
+    for (LexicalError error : errors) Lox.error(error.line(), error.message());
+  }
+
+  private void error(String message) {
+    if (errors == null) Lox.error(line, message);
+    else errors.add(new LexicalError(line, message));
+  }
+
+  /**
+   * Scans lexemes until one adds a token : comments and whitespaces add none.
+   * Once the source runs out, each call adds an EOF token.
+   */
+  private void scanNext() {
+    int before = tokens.scanned();
+    while (tokens.scanned() == before) {
+      if (isAtEnd()) {
+        tokens.add(EOF, line, 0, null);
+        return;
+      }
       //beginning of a lexeme
       start = current;
+      source.release(start);
       scanToken();
     }
-    //adds tokens until runs out of characters
-    tokens.add(new Token(TokenType.EOF, "", null, line));
-    return tokens;
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return !source.has(current);
   }
 
   private void scanToken() {
@@ -102,7 +170,7 @@ public class Scanner {
         } else if (isAlpha(c)) { //handle identifiers and reserved words
           identifier();
         } else {
-          Lox.error(line, "Unexpected character."); //erroneous character still consumed
+          error("Unexpected character."); //erroneous character still consumed
         }
       }
     }
@@ -116,18 +184,10 @@ public class Scanner {
   }
 
   /**
-   * Creates a token from the current lexeme
+   * Adds a token whose text is fixed by its type : its lexeme is not kept.
    */
   private void addToken(TokenType type) {
-    addToken(type, null);
-  }
-
-  /**
-   * Handles tokens with literal value.
-   */
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(type, line, 0, null);
   }
 
   /**
@@ -156,13 +216,13 @@ public class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      error("Unterminated string.");
       return;
     }
 
     advance(); //to closing double quote char
-    String value = source.substring(start + 1, current - 1); //strip surrounding quotes
-    addToken(STRING, value);
+    String value = source.subSequence(start + 1, current - 1); //strip surrounding quotes
+    tokens.add(STRING, line, 0, value);
   }
 
   private boolean isDigit(char c) {
@@ -177,21 +237,24 @@ public class Scanner {
       while (isDigit(peek())) advance();
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    //The value is parsed when the Parser builds the token
+    tokens.add(NUMBER, line, 0, source.subSequence(start, current));
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) return '\0';
+    if (!source.has(current + 1)) return '\0';
     return source.charAt(current + 1);
   }
 
+  /**
+   * The name is interned straight from the source : an identifier seen before creates no String.
+   */
   private void identifier() {
     while (isAlphanumeric(peek())) advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+    int symbol = Symbols.intern(source, start, current);
+    TokenType type = symbol < keywords.length && keywords[symbol] != null ? keywords[symbol] : IDENTIFIER;
+    tokens.add(type, line, symbol, null);
   }
 
   private boolean isAlpha(char c) {
@@ -0,0 +1,158 @@
+package com.jlox.lox.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The characters the Scanner reads, indexed from the start of the source.
+ * A script file is memory-mapped and decoded a chunk at a time, as the Scanner reaches it :
+ * the file's bytes are paged in by the OS rather than copied, and no String of the whole script is built.
+ * Only the characters from the start of the lexeme being scanned onwards are kept.
+ */
+public final class SourceText implements CharSequence {
+
+  private static final int CHUNK = 1 << 16; //Characters decoded at a time
+
+  private final ByteBuffer bytes; //null for a source already in memory
+  private final Charset charset;
+  private final CharsetDecoder decoder;
+  private char[] window; //Decoded characters, window[0] being the one at offset
+  private int offset = 0;
+  private int end; //Index after the last decoded character
+  private int released = 0; //Characters before it are no longer read
+  private boolean decoded; //The whole source is in the window or was released
+
+  private SourceText(ByteBuffer bytes, Charset charset, char[] window, int end) {
+    this.bytes = bytes;
+    this.charset = charset;
+    //Malformed input is replaced, as it is when the bytes are made into a String
+    this.decoder = charset == null ? null : charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.window = window;
+    this.end = end;
+    this.decoded = bytes == null;
+  }
+
+  /**
+   * A source already in memory, like a line typed at the prompt.
+   */
+  public static SourceText of(String source) {
+    return new SourceText(null, null, source.toCharArray(), source.length());
+  }
+
+  /**
+   * The mapping outlives the channel : it is released when the source is no longer referenced.
+   */
+  public static SourceText map(Path path, Charset charset) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException("Script too large to map : " + path);
+      return new SourceText(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset, new char[CHUNK], 0);
+    }
+  }
+
+  /**
+   * A mapped source can be cut at any byte holding a syntax character ('\n', '"', '/' or '*') :
+   * in these charsets such a character is one byte, which is never part of another character's encoding.
+   */
+  boolean splittable() {
+    return bytes != null && (charset.equals(StandardCharsets.UTF_8) ||
+            charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.ISO_8859_1));
+  }
+
+  int byteLength() {
+    return bytes.limit();
+  }
+
+  byte byteAt(int index) {
+    return bytes.get(index);
+  }
+
+  /**
+   * The source made of the bytes from start (inclusive) to end (exclusive), decoded on its own.
+   */
+  SourceText slice(int start, int end) {
+    return new SourceText(bytes.slice(start, end - start), charset, new char[CHUNK], 0);
+  }
+
+  /**
+   * Decodes up to the index if needed.
+   *
+   * @return false if the source ends before it.
+   */
+  boolean has(int index) {
+    while (index >= end) {
+      if (!decode()) return false;
+    }
+    return true;
+  }
+
+  /**
+   * The characters before the index are never read again : the next chunk decoded may drop them.
+   */
+  void release(int index) {
+    released = index;
+  }
+
+  /**
+   * Decodes the next chunk after the kept characters, first moving them to the start of the window.
+   *
+   * @return false if the whole source was already decoded.
+   */
+  private boolean decode() {
+    if (decoded) return false;
+    if (released > offset) {
+      System.arraycopy(window, released - offset, window, 0, end - released);
+      offset = released;
+    }
+    int kept = end - offset;
+    if (window.length - kept < CHUNK) window = Arrays.copyOf(window, Math.max(window.length * 2, kept + CHUNK));
+
+    //The whole input is mapped : every call is given the end of the input
+    CharBuffer out = CharBuffer.wrap(window, kept, CHUNK);
+    CoderResult result = decoder.decode(bytes, out, true);
+    if (result.isUnderflow()) {
+      decoder.flush(out);
+      decoded = true;
+    }
+    end = offset + out.position();
+    return out.position() > kept;
+  }
+
+  @Override
+  public int length() {
+    has(Integer.MAX_VALUE);
+    return end;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (!has(index) || index < offset) throw new IndexOutOfBoundsException(index);
+    return window[index - offset];
+  }
+
+  @Override
+  public String subSequence(int start, int end) {
+    if (start < offset || (end > start && !has(end - 1))) throw new IndexOutOfBoundsException(start);
+    return new String(window, start - offset, end - start);
+  }
+
+  /**
+   * The characters still kept, the whole source if none were released.
+   */
+  @Override
+  public String toString() {
+    return new String(window, 0, end - offset);
+  }
+}
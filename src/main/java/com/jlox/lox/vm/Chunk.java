@@ -0,0 +1,72 @@
+package com.jlox.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequence of bytecode together with its constant pool.
+ * Each byte of code remembers the source line it was compiled from, for runtime error reporting.
+ */
+final class Chunk {
+
+  private byte[] code = new byte[64];
+  private int[] lines = new int[64];
+  private int count = 0;
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new HashMap<>();
+  private Object[] constantPool;
+
+  void write(int b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = (byte) b;
+    lines[count] = line;
+    count++;
+  }
+
+  /**
+   * Constants are deduplicated, so a name used many times in a function only takes one pool entry.
+   */
+  int addConstant(Object value) {
+    Integer index = constantIndexes.get(value);
+    if (index != null) return index;
+    constants.add(value);
+    constantIndexes.put(value, constants.size() - 1);
+    return constants.size() - 1;
+  }
+
+  void patch(int offset, int b) {
+    code[offset] = (byte) b;
+  }
+
+  int count() {
+    return count;
+  }
+
+  /**
+   * Trims the code to its final size and freezes the constant pool : called once the function is fully compiled.
+   */
+  void finish() {
+    code = Arrays.copyOf(code, count);
+    lines = Arrays.copyOf(lines, count);
+    constantPool = constants.toArray();
+  }
+
+  byte[] code() {
+    return code;
+  }
+
+  Object[] constants() {
+    return constantPool;
+  }
+
+  int line(int offset) {
+    if (offset < 0) return lines.length > 0 ? lines[0] : 0;
+    return lines[Math.min(offset, count - 1)];
+  }
+}
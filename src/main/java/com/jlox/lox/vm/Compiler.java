@@ -0,0 +1,701 @@
+package com.jlox.lox.vm;
+
+import com.jlox.lox.Lox;
+import com.jlox.lox.grammar.string.Expr;
+import com.jlox.lox.grammar.string.Stmt;
+import com.jlox.lox.grammar.token.Token;
+import com.jlox.lox.helper.FunctionType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jlox.lox.grammar.token.TokenType.OR;
+
+/**
+ * Single pass over the resolved syntax tree, emitting one bytecode {@link Chunk} per function.
+ * Static errors have already been reported by the Resolver : the compiler only lays out storage.
+ * Locals live in stack slots, variables captured by closures are reached through upvalues,
+ * and everything declared at top level gets a slot in the VM's global table.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+  private static final int MAX_SLOTS = 256; //Slots and upvalues are addressed with a single byte operand
+  private static final int MAX_SHORT = 65535;
+
+  private final VM vm;
+  private FunctionState current;
+  private ClassState currentClass;
+  private int line = 1; //Line of the last token seen, attached to every byte emitted
+  private boolean hadError = false;
+
+  Compiler(VM vm) {
+    this.vm = vm;
+  }
+
+  /**
+   * Compiles a whole program into the implicit top-level function.
+   *
+   * @return null if the program could not be compiled.
+   */
+  VmFunction compileScript(List<Stmt> statements) {
+    current = new FunctionState(null, FunctionType.NONE, null);
+    for (Stmt stmt : statements) compile(stmt);
+    emitReturn();
+    return hadError ? null : endFunction(0);
+  }
+
+  /**
+   * Compiles a single expression into a top-level function returning its value (used by the REPL).
+   */
+  VmFunction compileExpression(Expr expr) {
+    current = new FunctionState(null, FunctionType.NONE, null);
+    compile(expr);
+    emitByte(OpCode.RETURN);
+    return hadError ? null : endFunction(0);
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    line = stmt.name.line();
+    declareVariable(stmt.name);
+
+    emitOpShort(OpCode.CLASS, identifierConstant(stmt.name));
+    defineVariable(stmt.name);
+
+    ClassState classState = new ClassState(currentClass);
+    currentClass = classState;
+
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+
+      //'super' is stored in a scope of its own, enclosing every method of the class
+      beginScope();
+      addLocal("super");
+      markInitialized();
+
+      namedVariable(stmt.name, false);
+      line = stmt.superclass.name.line();
+      emitByte(OpCode.INHERIT);
+      classState.hasSuperclass = true;
+    }
+
+    namedVariable(stmt.name, false); //Loads the class so that methods can be attached to it
+    for (Stmt.Function method : stmt.methods) {
+      line = method.name.line();
+      int methodConstant = identifierConstant(method.name);
+      FunctionType type = method.name.lexeme().equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+      function(method, type);
+      emitOpShort(OpCode.METHOD, methodConstant);
+    }
+    emitByte(OpCode.POP);
+
+    if (classState.hasSuperclass) endScope();
+    currentClass = currentClass.enclosing;
+    return null;
+  }
+
+  /**
+   * The function's name is marked initialized before its body is compiled, so that it can call itself.
+   */
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    line = stmt.name.line();
+    declareVariable(stmt.name);
+    markInitialized();
+    function(stmt, FunctionType.FUNCTION);
+    defineVariable(stmt.name);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (Stmt statement : stmt.statements) compile(statement);
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    line = stmt.name.line();
+    declareVariable(stmt.name);
+
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+    line = stmt.name.line();
+    defineVariable(stmt.name);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emitByte(OpCode.POP);
+    compile(stmt.thenBranch);
+
+    int elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emitByte(OpCode.POP);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  /**
+   * 'continue' jumps back to the condition, 'break' jumps past the instruction popping the condition's value.
+   */
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    LoopState loop = new LoopState(current.loop, current.chunk.count(), current.scopeDepth);
+    current.loop = loop;
+
+    compile(stmt.condition);
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emitByte(OpCode.POP);
+    compile(stmt.body);
+    emitLoop(loop.start);
+
+    patchJump(exitJump);
+    emitByte(OpCode.POP);
+    for (int breakJump : loop.breakJumps) patchJump(breakJump);
+
+    current.loop = loop.enclosing;
+    return null;
+  }
+
+  /**
+   * Same code as the while loop a 'for' used to be de-sugared to : a 'continue' jumps back to the condition,
+   * skipping the increment. Scopes live on the VM's stack, so the loop needs nothing more.
+   */
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    beginScope();
+    if (stmt.initializer != null) compile(stmt.initializer);
+    LoopState loop = new LoopState(current.loop, current.chunk.count(), current.scopeDepth);
+    current.loop = loop;
+
+    compile(stmt.condition);
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emitByte(OpCode.POP);
+    compile(stmt.body);
+    if (stmt.increment != null) {
+      compile(stmt.increment);
+      emitByte(OpCode.POP);
+    }
+    emitLoop(loop.start);
+
+    patchJump(exitJump);
+    emitByte(OpCode.POP);
+    for (int breakJump : loop.breakJumps) patchJump(breakJump);
+
+    current.loop = loop.enclosing;
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    if (current.loop == null) {
+      error("Can't use 'break' outside of a loop.");
+      return null;
+    }
+    discardLoopLocals();
+    current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    if (current.loop == null) {
+      error("Can't use 'continue' outside of a loop.");
+      return null;
+    }
+    discardLoopLocals();
+    emitLoop(current.loop.start);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.keyword.line();
+    if (stmt.value == null) {
+      emitReturn();
+    } else {
+      //'return f(args)' reuses the returning function's frame : tail recursion runs in constant space
+      if (stmt.value instanceof Expr.Call call &&
+              !(call.callee instanceof Expr.Get) && !(call.callee instanceof Expr.Super)) {
+        call(call, OpCode.TAIL_CALL);
+      } else {
+        compile(stmt.value);
+      }
+      emitByte(OpCode.RETURN);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    namedVariable(syntheticToken("this", expr.keyword), false);
+    namedVariable(syntheticToken("super", expr.keyword), false);
+    line = expr.method.line();
+    emitOpShort(OpCode.GET_SUPER, identifierConstant(expr.method));
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    namedVariable(expr.keyword, false);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    line = expr.name.line();
+    emitOpShort(OpCode.GET_PROPERTY, identifierConstant(expr.name));
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    compile(expr.value);
+    line = expr.name.line();
+    emitOpShort(OpCode.SET_PROPERTY, identifierConstant(expr.name));
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    line = expr.operator.line();
+    switch (expr.operator.type()) {
+      case BANG_EQUAL -> emitByte(OpCode.NOT_EQUAL);
+      case EQUAL_EQUAL -> emitByte(OpCode.EQUAL);
+      case GREATER -> emitByte(OpCode.GREATER);
+      case GREATER_EQUAL -> emitByte(OpCode.GREATER_EQUAL);
+      case LESS -> emitByte(OpCode.LESS);
+      case LESS_EQUAL -> emitByte(OpCode.LESS_EQUAL);
+      case PLUS -> emitByte(OpCode.ADD);
+      case MINUS -> emitByte(OpCode.SUBTRACT);
+      case STAR -> emitByte(OpCode.MULTIPLY);
+      case SLASH -> emitByte(OpCode.DIVIDE);
+      default -> throw new IllegalStateException("Unexpected binary operator " + expr.operator.type());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emitByte(OpCode.NIL);
+    } else if (expr.value instanceof Boolean b) {
+      emitByte(b ? OpCode.TRUE : OpCode.FALSE);
+    } else {
+      emitOpShort(OpCode.CONSTANT, makeConstant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    line = expr.operator.line();
+    switch (expr.operator.type()) {
+      case MINUS -> emitByte(OpCode.NEGATE);
+      case BANG -> emitByte(OpCode.NOT);
+      default -> throw new IllegalStateException("Unexpected unary operator " + expr.operator.type());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    namedVariable(expr.name, false);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    namedVariable(expr.name, true);
+    return null;
+  }
+
+  /**
+   * JUMP_IF_FALSE leaves the condition on the stack : it becomes the value of the whole expression
+   * when the expression short-circuits.
+   */
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    line = expr.operator.line();
+    if (expr.operator.type() == OR) {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+      patchJump(elseJump);
+      emitByte(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emitByte(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  /**
+   * 'obj.method(args)' and 'super.method(args)' are compiled to a single invoke instruction,
+   * which calls the method without creating a bound method first.
+   */
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Get get) {
+      compile(get.object);
+      int argCount = arguments(expr.arguments);
+      line = get.name.line();
+      emitOpShort(OpCode.INVOKE, identifierConstant(get.name));
+      emitByte(argCount);
+      return null;
+    }
+    if (expr.callee instanceof Expr.Super superExpr) {
+      namedVariable(syntheticToken("this", superExpr.keyword), false);
+      int argCount = arguments(expr.arguments);
+      namedVariable(syntheticToken("super", superExpr.keyword), false);
+      line = superExpr.method.line();
+      emitOpShort(OpCode.SUPER_INVOKE, identifierConstant(superExpr.method));
+      emitByte(argCount);
+      return null;
+    }
+
+    call(expr, OpCode.CALL);
+    return null;
+  }
+
+  private void call(Expr.Call expr, byte op) {
+    compile(expr.callee);
+    int argCount = arguments(expr.arguments);
+    line = expr.paren.line();
+    emitBytes(op, argCount);
+  }
+
+  private int arguments(List<Expr> arguments) {
+    for (Expr argument : arguments) compile(argument);
+    return arguments.size();
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  /**
+   * Compiles the function's body into its own chunk, then emits the instruction creating its closure
+   * in the enclosing function.
+   */
+  private void function(Stmt.Function declaration, FunctionType type) {
+    current = new FunctionState(current, type, declaration.name.lexeme());
+    beginScope();
+    for (Token param : declaration.params) {
+      declareVariable(param);
+      markInitialized();
+    }
+    for (Stmt stmt : declaration.body) compile(stmt);
+    emitReturn();
+
+    FunctionState compiled = current;
+    VmFunction function = endFunction(declaration.params.size());
+    current = compiled.enclosing;
+
+    line = declaration.name.line();
+    emitOpShort(OpCode.CLOSURE, makeConstant(function));
+    for (Upvalue upvalue : compiled.upvalues) {
+      emitByte(upvalue.isLocal() ? 1 : 0);
+      emitByte(upvalue.index());
+    }
+  }
+
+  private VmFunction endFunction(int arity) {
+    current.chunk.finish();
+    return new VmFunction(current.name, arity, current.upvalues.size(), current.chunk);
+  }
+
+  private void beginScope() {
+    current.scopeDepth++;
+  }
+
+  /**
+   * Discards the scope's locals : captured ones are moved off the stack into their upvalue.
+   */
+  private void endScope() {
+    current.scopeDepth--;
+    while (current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth) {
+      emitByte(current.locals[current.localCount - 1].isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+      current.localCount--;
+    }
+  }
+
+  /**
+   * Before jumping out of (or back to the start of) a loop, the locals declared inside the loop body are
+   * discarded, but they stay known to the compiler for the rest of the body.
+   */
+  private void discardLoopLocals() {
+    for (int i = current.localCount - 1; i >= 0 && current.locals[i].depth > current.loop.scopeDepth; i--) {
+      emitByte(current.locals[i].isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+    }
+  }
+
+  private void namedVariable(Token name, boolean assign) {
+    line = name.line();
+    byte getOp, setOp;
+    int arg = resolveLocal(current, name);
+    if (arg != -1) {
+      getOp = OpCode.GET_LOCAL;
+      setOp = OpCode.SET_LOCAL;
+    } else if ((arg = resolveUpvalue(current, name)) != -1) {
+      getOp = OpCode.GET_UPVALUE;
+      setOp = OpCode.SET_UPVALUE;
+    } else {
+      emitOpShort(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, globalSlot(name));
+      return;
+    }
+    emitBytes(assign ? setOp : getOp, arg);
+  }
+
+  private int resolveLocal(FunctionState state, Token name) {
+    for (int i = state.localCount - 1; i >= 0; i--) {
+      if (state.locals[i].name.equals(name.lexeme())) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Walks the enclosing functions outwards : each function in between captures the variable in turn,
+   * so that the innermost closure can reach it through a chain of upvalues.
+   */
+  private int resolveUpvalue(FunctionState state, Token name) {
+    if (state.enclosing == null) return -1;
+
+    int local = resolveLocal(state.enclosing, name);
+    if (local != -1) {
+      state.enclosing.locals[local].isCaptured = true;
+      return addUpvalue(state, local, true);
+    }
+
+    int upvalue = resolveUpvalue(state.enclosing, name);
+    if (upvalue != -1) return addUpvalue(state, upvalue, false);
+
+    return -1;
+  }
+
+  private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+    for (int i = 0; i < state.upvalues.size(); i++) {
+      Upvalue upvalue = state.upvalues.get(i);
+      if (upvalue.index() == index && upvalue.isLocal() == isLocal) return i;
+    }
+    if (state.upvalues.size() == MAX_SLOTS) {
+      error("Too many closure variables in function.");
+      return 0;
+    }
+    state.upvalues.add(new Upvalue(index, isLocal));
+    return state.upvalues.size() - 1;
+  }
+
+  private void declareVariable(Token name) {
+    if (current.scopeDepth == 0) return; //Globals are late bound
+    addLocal(name.lexeme());
+  }
+
+  private void addLocal(String name) {
+    if (current.localCount == MAX_SLOTS) {
+      error("Too many local variables in function.");
+      return;
+    }
+    current.locals[current.localCount++] = new Local(name, -1);
+  }
+
+  private void markInitialized() {
+    if (current.scopeDepth == 0) return;
+    current.locals[current.localCount - 1].depth = current.scopeDepth;
+  }
+
+  /**
+   * A local is already in place : the value of its initializer sits in the local's stack slot.
+   */
+  private void defineVariable(Token name) {
+    if (current.scopeDepth > 0) {
+      markInitialized();
+      return;
+    }
+    emitOpShort(OpCode.DEFINE_GLOBAL, globalSlot(name));
+  }
+
+  private int globalSlot(Token name) {
+    int slot = vm.globalSlot(name.lexeme());
+    if (slot > MAX_SHORT) {
+      error("Too many global variables.");
+      return 0;
+    }
+    return slot;
+  }
+
+  private int identifierConstant(Token name) {
+    return makeConstant(name.lexeme());
+  }
+
+  private int makeConstant(Object value) {
+    int constant = current.chunk.addConstant(value);
+    if (constant > MAX_SHORT) {
+      error("Too many constants in one chunk.");
+      return 0;
+    }
+    return constant;
+  }
+
+  private Token syntheticToken(String text, Token at) {
+    return new Token(at.type(), text, null, at.line());
+  }
+
+  /**
+   * Functions without an explicit return value return nil, initializers always return 'this'.
+   */
+  private void emitReturn() {
+    if (current.type == FunctionType.INITIALIZER) {
+      emitBytes(OpCode.GET_LOCAL, 0);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+    emitByte(OpCode.RETURN);
+  }
+
+  private int emitJump(byte instruction) {
+    emitByte(instruction);
+    emitByte(0xff);
+    emitByte(0xff);
+    return current.chunk.count() - 2;
+  }
+
+  private void patchJump(int offset) {
+    //-2 to adjust for the bytecode for the jump offset itself
+    int jump = current.chunk.count() - offset - 2;
+    if (jump > MAX_SHORT) error("Too much code to jump over.");
+    current.chunk.patch(offset, (jump >> 8) & 0xff);
+    current.chunk.patch(offset + 1, jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emitByte(OpCode.LOOP);
+    int offset = current.chunk.count() - loopStart + 2;
+    if (offset > MAX_SHORT) error("Loop body too large.");
+    emitByte((offset >> 8) & 0xff);
+    emitByte(offset & 0xff);
+  }
+
+  private void emitOpShort(byte instruction, int operand) {
+    emitByte(instruction);
+    emitByte((operand >> 8) & 0xff);
+    emitByte(operand & 0xff);
+  }
+
+  private void emitBytes(int b1, int b2) {
+    emitByte(b1);
+    emitByte(b2);
+  }
+
+  private void emitByte(int b) {
+    current.chunk.write(b, line);
+  }
+
+  private void error(String message) {
+    Lox.error(line, message);
+    hadError = true;
+  }
+
+  private static final class FunctionState {
+    final FunctionState enclosing;
+    final FunctionType type;
+    final String name;
+    final Chunk chunk = new Chunk();
+    final Local[] locals = new Local[MAX_SLOTS];
+    int localCount = 0;
+    final List<Upvalue> upvalues = new ArrayList<>();
+    int scopeDepth = 0;
+    LoopState loop;
+
+    FunctionState(FunctionState enclosing, FunctionType type, String name) {
+      this.enclosing = enclosing;
+      this.type = type;
+      this.name = name;
+      //Slot zero holds the function being called, or the receiver in methods
+      String slotZero = type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "";
+      locals[localCount++] = new Local(slotZero, 0);
+    }
+  }
+
+  private static final class Local {
+    final String name;
+    int depth; //-1 while the variable is declared but its initializer is not compiled yet
+    boolean isCaptured = false;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private record Upvalue(int index, boolean isLocal) {
+  }
+
+  private static final class LoopState {
+    final LoopState enclosing;
+    final int start;
+    final int scopeDepth;
+    final List<Integer> breakJumps = new ArrayList<>();
+
+    LoopState(LoopState enclosing, int start, int scopeDepth) {
+      this.enclosing = enclosing;
+      this.start = start;
+      this.scopeDepth = scopeDepth;
+    }
+  }
+
+  private static final class ClassState {
+    final ClassState enclosing;
+    boolean hasSuperclass = false;
+
+    ClassState(ClassState enclosing) {
+      this.enclosing = enclosing;
+    }
+  }
+}
@@ -0,0 +1,635 @@
+package com.jlox.lox.vm;
+
+import com.jlox.lox.Lox;
+import com.jlox.lox.exception.RuntimeError;
+import com.jlox.lox.grammar.string.Expr;
+import com.jlox.lox.grammar.string.Stmt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jlox.lox.helper.Values.isEqual;
+import static com.jlox.lox.helper.Values.isTruthy;
+import static com.jlox.lox.helper.Values.stringify;
+
+/**
+ * Stack-based virtual machine executing the bytecode produced by the {@link Compiler}.
+ * Alternative to the tree-walk Interpreter : instead of dispatching on syntax tree nodes,
+ * it runs a tight loop over flat byte arrays, keeping operands and locals on a single value stack.
+ * Globals survive between calls to interpret(), so successive REPL lines share the same state.
+ * <p>
+ * Numbers are never boxed while they stay in the VM : a slot holding one is tagged {@link #NUMBER},
+ * and the double itself sits at the same index of a parallel primitive array.
+ * The stack, the globals and closed upvalues all work this way.
+ * A number is only boxed when it leaves the VM : stored in a field, or handed to a native or to the REPL.
+ */
+public class VM {
+
+  public static final int DEFAULT_MAX_FRAMES = 1 << 20;
+
+  private static int maxFrames = DEFAULT_MAX_FRAMES; //Frames live on the heap : recursion depth is bounded by memory
+
+  /*
+   Type tag of a slot holding a number, no boxed Double is ever stored next to the primitive arrays.
+   Any other value is stored as is : a Boolean, a String, nil, or a heap object of the VM.
+   */
+  static final Object NUMBER = new Object();
+
+  private Object[] stack = new Object[1024];
+  private double[] numbers = new double[1024];
+  private int sp = 0; //Points to the next free stack slot
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount = 0;
+  private VmUpvalue openUpvalues;
+
+  /*
+   Globals are resolved to a slot once, when the code referencing them is compiled.
+   A slot holds UNDEFINED until the variable's declaration has run.
+   */
+  private static final Object UNDEFINED = new Object();
+  private final Map<String, Integer> globalSlots = new HashMap<>();
+  private String[] globalNames = new String[64];
+  private Object[] globalValues = new Object[64];
+  private double[] globalNumbers = new double[64];
+
+  public VM() {
+    globalValues[globalSlot("clock")] = new VmNative(0) {
+      @Override
+      Object call(Object[] args) {
+        return (double) System.currentTimeMillis() / 1000.0;
+      }
+    };
+  }
+
+  public static void setMaxFrames(int value) {
+    maxFrames = Math.max(1, value); //The script itself takes a frame
+  }
+
+  public void interpret(List<Stmt> statements) {
+    VmFunction script = new Compiler(this).compileScript(statements);
+    if (script == null) return;
+    try {
+      execute(script);
+    } catch (RuntimeError ignored) {
+      //Already reported
+    }
+  }
+
+  /**
+   * @return the stringified value of the expression, or null if it failed to compile or to run.
+   */
+  public String interpret(Expr expr) {
+    VmFunction script = new Compiler(this).compileExpression(expr);
+    if (script == null) return null;
+    try {
+      return stringify(execute(script));
+    } catch (RuntimeError ignored) {
+      return null;
+    }
+  }
+
+  /**
+   * Runtime errors are reported here, with the line of the failing instruction, then rethrown to the caller.
+   */
+  private Object execute(VmFunction script) {
+    if (frames.length > maxFrames) frames = new CallFrame[maxFrames];
+    VmClosure closure = new VmClosure(script);
+    push(closure);
+    call(closure, 0);
+    try {
+      return run();
+    } catch (RuntimeError error) {
+      CallFrame frame = frames[frameCount - 1];
+      Lox.runtimeError(error.getMessage(), frame.closure.function.chunk.line(frame.ip - 1));
+      resetStack();
+      throw error;
+    }
+  }
+
+  /**
+   * The instruction pointer, the current frame's code and constants are cached in locals,
+   * and only written back to the frame when another frame takes over.
+   */
+  private Object run() {
+    CallFrame frame = frames[frameCount - 1];
+    byte[] code = frame.closure.function.chunk.code();
+    Object[] constants = frame.closure.function.chunk.constants();
+    int base = frame.base;
+    int ip = frame.ip;
+
+    try {
+      for (; ; ) {
+        switch (code[ip++]) {
+          case OpCode.CONSTANT -> {
+            pushValue(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+            ip += 2;
+          }
+          case OpCode.NIL -> push(null);
+          case OpCode.TRUE -> push(Boolean.TRUE);
+          case OpCode.FALSE -> push(Boolean.FALSE);
+          case OpCode.POP -> sp--;
+          case OpCode.GET_LOCAL -> {
+            int slot = base + (code[ip++] & 0xff);
+            push(stack[slot], numbers[slot]);
+          }
+          case OpCode.SET_LOCAL -> {
+            int slot = base + (code[ip++] & 0xff);
+            stack[slot] = stack[sp - 1];
+            numbers[slot] = numbers[sp - 1];
+          }
+          case OpCode.GET_GLOBAL -> {
+            int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            Object value = globalValues[slot];
+            if (value == UNDEFINED) {
+              throw error(frame, ip, "Use of undeclared variable '" + globalNames[slot] + "'.");
+            }
+            push(value, globalNumbers[slot]);
+          }
+          case OpCode.DEFINE_GLOBAL -> {
+            int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (globalValues[slot] != UNDEFINED) {
+              throw error(frame, ip, "A variable named '" + globalNames[slot] + "' has already been declared before.");
+            }
+            sp--;
+            globalValues[slot] = stack[sp];
+            globalNumbers[slot] = numbers[sp];
+          }
+          case OpCode.SET_GLOBAL -> {
+            int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (globalValues[slot] == UNDEFINED) {
+              throw error(frame, ip, "Undefined variable while assigning '" + globalNames[slot] + "'.");
+            }
+            globalValues[slot] = stack[sp - 1];
+            globalNumbers[slot] = numbers[sp - 1];
+          }
+          case OpCode.GET_UPVALUE -> {
+            VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+            if (upvalue.closed) {
+              push(upvalue.value, upvalue.number);
+            } else {
+              push(stack[upvalue.slot], numbers[upvalue.slot]);
+            }
+          }
+          case OpCode.SET_UPVALUE -> {
+            VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+            if (upvalue.closed) {
+              upvalue.value = stack[sp - 1];
+              upvalue.number = numbers[sp - 1];
+            } else {
+              stack[upvalue.slot] = stack[sp - 1];
+              numbers[upvalue.slot] = numbers[sp - 1];
+            }
+          }
+          case OpCode.GET_PROPERTY -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            if (!(stack[sp - 1] instanceof VmInstance instance)) {
+              throw error(frame, ip, "Only instances have properties.");
+            }
+            Object value = instance.fields.get(name);
+            if (value != null || instance.fields.containsKey(name)) {
+              sp--;
+              pushValue(value);
+            } else {
+              stack[sp - 1] = bindMethod(frame, ip, instance.clazz, instance, name);
+            }
+          }
+          case OpCode.SET_PROPERTY -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            if (!(stack[sp - 2] instanceof VmInstance instance)) {
+              throw error(frame, ip, "Only instances have fields.");
+            }
+            sp--;
+            instance.fields.put(name, box(sp));
+            stack[sp - 1] = stack[sp];
+            numbers[sp - 1] = numbers[sp];
+          }
+          case OpCode.GET_SUPER -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            VmClass superclass = (VmClass) stack[--sp];
+            stack[sp - 1] = bindMethod(frame, ip, superclass, stack[sp - 1], name);
+          }
+          case OpCode.EQUAL -> {
+            sp--;
+            stack[sp - 1] = equal(sp - 1, sp);
+          }
+          case OpCode.NOT_EQUAL -> {
+            sp--;
+            stack[sp - 1] = !equal(sp - 1, sp);
+          }
+          case OpCode.GREATER -> {
+            checkNumberOperands(frame, ip);
+            stack[sp - 2] = numbers[sp - 2] > numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.GREATER_EQUAL -> {
+            checkNumberOperands(frame, ip);
+            stack[sp - 2] = numbers[sp - 2] >= numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.LESS -> {
+            checkNumberOperands(frame, ip);
+            stack[sp - 2] = numbers[sp - 2] < numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.LESS_EQUAL -> {
+            checkNumberOperands(frame, ip);
+            stack[sp - 2] = numbers[sp - 2] <= numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.ADD -> { //Operator is overloaded
+            Object a = stack[sp - 2];
+            Object b = stack[sp - 1];
+            if (a == NUMBER && b == NUMBER) {
+              numbers[sp - 2] += numbers[sp - 1];
+            } else if (a instanceof String l && b == NUMBER) {
+              stack[sp - 2] = l + numbers[sp - 1];
+            } else if (a instanceof String l && b instanceof String r) {
+              stack[sp - 2] = l + r;
+            } else {
+              throw error(frame, ip, "Operands must be two numbers or left operand must be a String.");
+            }
+            sp--;
+          }
+          case OpCode.SUBTRACT -> {
+            checkNumberOperands(frame, ip);
+            numbers[sp - 2] -= numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.MULTIPLY -> {
+            checkNumberOperands(frame, ip);
+            numbers[sp - 2] *= numbers[sp - 1];
+            sp--;
+          }
+          case OpCode.DIVIDE -> {
+            checkNumberOperands(frame, ip);
+            double divisor = numbers[sp - 1];
+            if (divisor == 0) throw error(frame, ip, "Division by zero!");
+            numbers[sp - 2] /= divisor;
+            sp--;
+          }
+          case OpCode.NOT -> stack[sp - 1] = !isTruthy(stack[sp - 1]);
+          case OpCode.NEGATE -> {
+            if (stack[sp - 1] != NUMBER) throw error(frame, ip, "Operand must be a number.");
+            numbers[sp - 1] = -numbers[sp - 1];
+          }
+          case OpCode.PRINT -> {
+            sp--;
+            System.out.println(stack[sp] == NUMBER ? stringify(numbers[sp]) : stringify(stack[sp]));
+          }
+          case OpCode.JUMP -> ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+          case OpCode.JUMP_IF_FALSE -> {
+            if (isTruthy(stack[sp - 1])) {
+              ip += 2;
+            } else {
+              ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+            }
+          }
+          case OpCode.LOOP -> ip = ip + 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+          case OpCode.CALL -> {
+            int argCount = code[ip++] & 0xff;
+            frame.ip = ip;
+            callValue(stack[sp - 1 - argCount], argCount);
+            if (frame != frames[frameCount - 1]) {
+              frame = frames[frameCount - 1];
+              code = frame.closure.function.chunk.code();
+              constants = frame.closure.function.chunk.constants();
+              base = frame.base;
+              ip = frame.ip;
+            }
+          }
+          case OpCode.TAIL_CALL -> {
+            int argCount = code[ip++] & 0xff;
+            int callee = sp - 1 - argCount;
+            VmClosure target = null;
+            if (stack[callee] instanceof VmClosure closure) {
+              target = closure;
+            } else if (stack[callee] instanceof VmBoundMethod bound) {
+              stack[callee] = bound.receiver;
+              target = bound.method;
+            }
+            if (target == null || target.function.arity != argCount) {
+              //Natives, classes and arity errors : an ordinary call, the RETURN that follows hands back its result
+              frame.ip = ip;
+              callValue(stack[callee], argCount);
+              if (frame != frames[frameCount - 1]) {
+                frame = frames[frameCount - 1];
+                code = frame.closure.function.chunk.code();
+                constants = frame.closure.function.chunk.constants();
+                base = frame.base;
+                ip = frame.ip;
+              }
+            } else {
+              //The callee and its arguments replace the returning function's frame
+              closeUpvalues(base);
+              System.arraycopy(stack, callee, stack, base, argCount + 1);
+              System.arraycopy(numbers, callee, numbers, base, argCount + 1);
+              sp = base + argCount + 1;
+              frame.closure = target;
+              code = target.function.chunk.code();
+              constants = target.function.chunk.constants();
+              ip = 0;
+            }
+          }
+          case OpCode.INVOKE -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            int argCount = code[ip + 2] & 0xff;
+            ip += 3;
+            frame.ip = ip;
+            invoke(name, argCount);
+            if (frame != frames[frameCount - 1]) {
+              frame = frames[frameCount - 1];
+              code = frame.closure.function.chunk.code();
+              constants = frame.closure.function.chunk.constants();
+              base = frame.base;
+              ip = frame.ip;
+            }
+          }
+          case OpCode.SUPER_INVOKE -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            int argCount = code[ip + 2] & 0xff;
+            ip += 3;
+            frame.ip = ip;
+            VmClass superclass = (VmClass) stack[--sp];
+            VmClosure method = superclass.methods.get(name);
+            if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+            call(method, argCount);
+            frame = frames[frameCount - 1];
+            code = frame.closure.function.chunk.code();
+            constants = frame.closure.function.chunk.constants();
+            base = frame.base;
+            ip = frame.ip;
+          }
+          case OpCode.CLOSURE -> {
+            VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            VmClosure closure = new VmClosure(function);
+            for (int i = 0; i < closure.upvalues.length; i++) {
+              boolean isLocal = code[ip++] == 1;
+              int index = code[ip++] & 0xff;
+              closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+            }
+            push(closure);
+          }
+          case OpCode.CLOSE_UPVALUE -> {
+            closeUpvalues(sp - 1);
+            sp--;
+          }
+          case OpCode.RETURN -> {
+            sp--;
+            Object result = stack[sp];
+            double number = numbers[sp];
+            closeUpvalues(base);
+            frameCount--;
+            if (frameCount == 0) {
+              resetStack();
+              return result == NUMBER ? (Object) number : result;
+            }
+            sp = base;
+            push(result, number);
+
+            frame = frames[frameCount - 1];
+            code = frame.closure.function.chunk.code();
+            constants = frame.closure.function.chunk.constants();
+            base = frame.base;
+            ip = frame.ip;
+          }
+          case OpCode.CLASS -> {
+            push(new VmClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+            ip += 2;
+          }
+          case OpCode.INHERIT -> {
+            if (!(stack[sp - 2] instanceof VmClass superclass)) {
+              throw error(frame, ip, "Superclass must be a class.");
+            }
+            VmClass subclass = (VmClass) stack[sp - 1];
+            //Copy-down inheritance : the subclass' own methods are added afterwards and override these
+            subclass.methods.putAll(superclass.methods);
+            subclass.initializer = superclass.initializer;
+            sp--;
+          }
+          case OpCode.METHOD -> {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            VmClosure method = (VmClosure) stack[sp - 1];
+            VmClass clazz = (VmClass) stack[sp - 2];
+            clazz.methods.put(name, method);
+            if (name.equals("init")) clazz.initializer = method;
+            sp--;
+          }
+          default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+        }
+      }
+    } catch (RuntimeError error) {
+      frame.ip = ip;
+      throw error;
+    }
+  }
+
+  /**
+   * Returns the slot of the global variable with this name, reserving a new one on first use.
+   */
+  int globalSlot(String name) {
+    Integer slot = globalSlots.get(name);
+    if (slot != null) return slot;
+
+    int created = globalSlots.size();
+    if (created == globalValues.length) {
+      globalNames = Arrays.copyOf(globalNames, created * 2);
+      globalValues = Arrays.copyOf(globalValues, created * 2);
+      globalNumbers = Arrays.copyOf(globalNumbers, created * 2);
+    }
+    globalNames[created] = name;
+    globalValues[created] = UNDEFINED;
+    globalSlots.put(name, created);
+    return created;
+  }
+
+  private void callValue(Object callee, int argCount) {
+    if (callee instanceof VmClosure closure) {
+      call(closure, argCount);
+    } else if (callee instanceof VmBoundMethod bound) {
+      stack[sp - 1 - argCount] = bound.receiver;
+      call(bound.method, argCount);
+    } else if (callee instanceof VmClass clazz) {
+      stack[sp - 1 - argCount] = new VmInstance(clazz);
+      if (clazz.initializer != null) {
+        call(clazz.initializer, argCount);
+      } else if (argCount != 0) {
+        throw new RuntimeError("Expected 0 arguments but got " + argCount + ".");
+      }
+    } else if (callee instanceof VmNative function) {
+      if (argCount != function.arity) {
+        throw new RuntimeError("Expected " + function.arity + " arguments but got " + argCount + ".");
+      }
+      Object[] args = new Object[argCount];
+      for (int i = 0; i < argCount; i++) args[i] = box(sp - argCount + i);
+      sp -= argCount + 1;
+      pushValue(function.call(args));
+    } else {
+      throw new RuntimeError("Can only call functions and classes.");
+    }
+  }
+
+  /**
+   * Fields shadow methods : a field holding a function is called like any other value.
+   */
+  private void invoke(String name, int argCount) {
+    Object receiver = stack[sp - 1 - argCount];
+    if (!(receiver instanceof VmInstance instance)) {
+      throw new RuntimeError("Only instances have properties.");
+    }
+    Object field = instance.fields.get(name);
+    if (field != null || instance.fields.containsKey(name)) {
+      stack[sp - 1 - argCount] = field;
+      callValue(field, argCount);
+      return;
+    }
+    VmClosure method = instance.clazz.methods.get(name);
+    if (method == null) throw new RuntimeError("Undefined property '" + name + "'.");
+    call(method, argCount);
+  }
+
+  /**
+   * Pushes a new frame : the callee and its arguments already sit on top of the stack and become the frame's
+   * first slots.
+   */
+  private void call(VmClosure closure, int argCount) {
+    if (argCount != closure.function.arity) {
+      throw new RuntimeError("Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+    }
+    if (frameCount == frames.length) growFrames();
+
+    CallFrame frame = frames[frameCount];
+    if (frame == null) frame = frames[frameCount] = new CallFrame();
+    frameCount++;
+    frame.closure = closure;
+    frame.ip = 0;
+    frame.base = sp - argCount - 1;
+  }
+
+  /**
+   * The frames array never gets longer than the limit, so call() only compares against its length.
+   */
+  private void growFrames() {
+    if (frameCount >= maxFrames) throw new RuntimeError("Stack overflow.");
+    frames = Arrays.copyOf(frames, (int) Math.min(maxFrames, frameCount * 2L));
+  }
+
+  private VmBoundMethod bindMethod(CallFrame frame, int ip, VmClass clazz, Object receiver, String name) {
+    VmClosure method = clazz.methods.get(name);
+    if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+    return new VmBoundMethod(receiver, method);
+  }
+
+  /**
+   * Reuses the upvalue if the slot has already been captured, so that closures share variables.
+   */
+  private VmUpvalue captureUpvalue(int slot) {
+    VmUpvalue previous = null;
+    VmUpvalue upvalue = openUpvalues;
+    while (upvalue != null && upvalue.slot > slot) {
+      previous = upvalue;
+      upvalue = upvalue.next;
+    }
+    if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+    VmUpvalue created = new VmUpvalue(slot, upvalue);
+    if (previous == null) {
+      openUpvalues = created;
+    } else {
+      previous.next = created;
+    }
+    return created;
+  }
+
+  private void closeUpvalues(int lastSlot) {
+    while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+      VmUpvalue upvalue = openUpvalues;
+      upvalue.value = stack[upvalue.slot];
+      upvalue.number = numbers[upvalue.slot];
+      upvalue.closed = true;
+      openUpvalues = upvalue.next;
+    }
+  }
+
+  /**
+   * Pushes a value that is not a number.
+   */
+  private void push(Object value) {
+    if (sp == stack.length) grow();
+    stack[sp++] = value;
+  }
+
+  /**
+   * Pushes a slot copied from elsewhere in the VM : its number only matters when the value is tagged NUMBER.
+   */
+  private void push(Object value, double number) {
+    if (sp == stack.length) grow();
+    numbers[sp] = number;
+    stack[sp++] = value;
+  }
+
+  /**
+   * Pushes a value coming from outside the VM, unboxing it if it is a number.
+   */
+  private void pushValue(Object value) {
+    if (value instanceof Double d) {
+      push(NUMBER, d);
+    } else {
+      push(value);
+    }
+  }
+
+  /**
+   * The value of a stack slot as the rest of Lox sees it.
+   */
+  private Object box(int slot) {
+    return stack[slot] == NUMBER ? (Object) numbers[slot] : stack[slot];
+  }
+
+  /**
+   * Same as {@link com.jlox.lox.helper.Values#isEqual(Object, Object)} on the boxed values.
+   * A number is never equal to a value of another type.
+   */
+  private boolean equal(int a, int b) {
+    if (stack[a] == NUMBER && stack[b] == NUMBER) return isEqual(numbers[a], numbers[b]);
+    if (stack[a] == NUMBER || stack[b] == NUMBER) return false;
+    return isEqual(stack[a], stack[b]);
+  }
+
+  private void grow() {
+    stack = Arrays.copyOf(stack, stack.length * 2);
+    numbers = Arrays.copyOf(numbers, numbers.length * 2);
+  }
+
+  private void checkNumberOperands(CallFrame frame, int ip) {
+    if (stack[sp - 2] == NUMBER && stack[sp - 1] == NUMBER) return;
+    throw error(frame, ip, "Operands must be numbers.");
+  }
+
+  private RuntimeError error(CallFrame frame, int ip, String message) {
+    frame.ip = ip;
+    return new RuntimeError(message);
+  }
+
+  private void resetStack() {
+    Arrays.fill(stack, 0, sp, null);
+    sp = 0;
+    frameCount = 0;
+    openUpvalues = null;
+  }
+
+  private static final class CallFrame {
+    VmClosure closure;
+    int ip;
+    int base; //Stack slot of the callee, followed by its arguments and locals
+  }
+}
@@ -0,0 +1,20 @@
+package com.jlox.lox.vm;
+
+/**
+ * A method accessed as a value : remembers the instance it was accessed from, so 'this' can be bound when called.
+ */
+final class VmBoundMethod {
+
+  final Object receiver;
+  final VmClosure method;
+
+  VmBoundMethod(Object receiver, VmClosure method) {
+    this.receiver = receiver;
+    this.method = method;
+  }
+
+  @Override
+  public String toString() {
+    return method.toString();
+  }
+}
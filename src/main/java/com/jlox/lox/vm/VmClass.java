@@ -0,0 +1,20 @@
+package com.jlox.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class VmClass {
+
+  final String name;
+  final Map<String, VmClosure> methods = new HashMap<>();
+  VmClosure initializer; //Cached so that instantiation does not need a method lookup
+
+  VmClass(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
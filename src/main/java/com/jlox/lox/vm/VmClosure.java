@@ -0,0 +1,20 @@
+package com.jlox.lox.vm;
+
+/**
+ * Runtime function value : a function paired with the variables it captured from enclosing scopes.
+ */
+final class VmClosure {
+
+  final VmFunction function;
+  final VmUpvalue[] upvalues;
+
+  VmClosure(VmFunction function) {
+    this.function = function;
+    this.upvalues = new VmUpvalue[function.upvalueCount];
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
@@ -0,0 +1,26 @@
+package com.jlox.lox.vm;
+
+/**
+ * Compile-time representation of a function : its bytecode and the shape of its frame.
+ * At runtime, a function is always wrapped in a {@link VmClosure}.
+ */
+final class VmFunction {
+
+  final String name;
+  final int arity;
+  final int upvalueCount;
+  final Chunk chunk;
+
+  VmFunction(String name, int arity, int upvalueCount, Chunk chunk) {
+    this.name = name;
+    this.arity = arity;
+    this.upvalueCount = upvalueCount;
+    this.chunk = chunk;
+  }
+
+  @Override
+  public String toString() {
+    if (name == null) return "<script>";
+    return "<fn " + name + ">";
+  }
+}
@@ -0,0 +1,19 @@
+package com.jlox.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class VmInstance {
+
+  final VmClass clazz;
+  final Map<String, Object> fields = new HashMap<>();
+
+  VmInstance(VmClass clazz) {
+    this.clazz = clazz;
+  }
+
+  @Override
+  public String toString() {
+    return clazz.name + " instance.";
+  }
+}
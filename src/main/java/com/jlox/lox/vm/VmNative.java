@@ -0,0 +1,20 @@
+package com.jlox.lox.vm;
+
+/**
+ * A function implemented in Java. Receives its arguments boxed, as the rest of Lox sees them.
+ */
+abstract class VmNative {
+
+  final int arity;
+
+  VmNative(int arity) {
+    this.arity = arity;
+  }
+
+  abstract Object call(Object[] args);
+
+  @Override
+  public String toString() {
+    return "<native function>";
+  }
+}
@@ -0,0 +1,20 @@
+package com.jlox.lox.vm;
+
+/**
+ * A captured variable.
+ * While the variable still lives on the VM stack, the upvalue is 'open' and points at its stack slot.
+ * When the variable goes out of scope, the upvalue is 'closed' : the value moves into the upvalue itself.
+ */
+final class VmUpvalue {
+
+  int slot;
+  boolean closed = false;
+  Object value;
+  double number; //The value, once closed, when it is tagged VM.NUMBER
+  VmUpvalue next; //Open upvalues are kept in a list sorted by stack slot, topmost first
+
+  VmUpvalue(int slot, VmUpvalue next) {
+    this.slot = slot;
+    this.next = next;
+  }
+}
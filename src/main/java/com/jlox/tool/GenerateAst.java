@@ -3,8 +3,12 @@ package com.jlox.tool;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class GenerateAst {
 
@@ -18,35 +22,88 @@ public class GenerateAst {
     }
     String outputDir = args[0];
     defineAst(outputDir, "Expr", Arrays.asList(
+            "Super    : Token keyword, Token method",
+            "This     : Token keyword",
+            "Get      : Expr object, Token name",
+            "Set      : Expr object, Token name, Expr value",
             "Binary   : Expr left, Token operator, Expr right",
             "Grouping : Expr expression",
             "Literal  : Object value",
-            "Unary    : Token operator, Expr right"
-    ));
+            "Unary    : Token operator, Expr right",
+            "Variable : Token name",
+            "Assign   : Token name, Expr value",
+            "Logical  : Expr left, Token operator, Expr right",
+            "Call     : Expr callee, Token paren, List<Expr> arguments"
+    ), Set.of("Super", "This", "Variable", "Assign"),
+            Map.of("Get", "PropertyCache", "Set", "PropertyCache", "Variable", "GlobalCache", "Assign", "GlobalCache"),
+            Set.of(), Set.of(), Set.of());
+    defineAst(outputDir, "Stmt", Arrays.asList(
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Block      : List<Stmt> statements",
+            "Expression : Expr expression",
+            "Print      : Expr expression",
+            "Var        : Token name, Expr initializer",
+            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "While      : Expr condition, Stmt body",
+            "For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
+            "Break      : ",
+            "Continue   : ",
+            "Return     : Token keyword, Expr value"
+    ), Set.of(), Map.of(), Set.of("For"), Set.of("Class", "Function", "Var"), Set.of("Function", "Block", "For"));
   }
 
+  /**
+   * @param resolvable node types referring to a variable : they get the mutable fields the Resolver fills in.
+   * @param cached     node types accessing a property or a global, with the type of the Interpreter's cache for it.
+   * @param loops      loop node types : they get the facts the Resolver finds about them.
+   * @param declaring  node types declaring a variable : they get the slot the Resolver gives it.
+   * @param scoping    node types that may open a scope : they get the size the Resolver computes for it.
+   */
   private static void defineAst(String outputDir,
                                 String baseName,
-                                List<String> types) throws IOException {
-    String path = outputDir + "\\" + baseName + ".java";
+                                List<String> types,
+                                Set<String> resolvable,
+                                Map<String, String> cached,
+                                Set<String> loops,
+                                Set<String> declaring,
+                                Set<String> scoping) throws IOException {
+    String path = Paths.get(outputDir, baseName + ".java").toString();
 
     try (var writer = new PrintWriter(path, StandardCharsets.UTF_8)) {
-      writer.println("package com.jlox.lox;");
+      writer.println("package com.jlox.lox.grammar.string;");
+      writer.println();
+      writer.println("import com.jlox.lox.grammar.token.Token;");
+      for (String cache : new TreeSet<>(cached.values())) {
+        writer.println("import com.jlox.lox.object." + cache + ";");
+      }
       writer.println();
       writer.println("import java.util.List;");
       writer.println();
-      writer.println("abstract class " + baseName + " {");
+      writer.println("public abstract class " + baseName + " {");
+
+      if (!resolvable.isEmpty()) {
+        writer.println(twoSpaces + "/**");
+        writer.println(twoSpaces + " * Depth of a variable no local scope declares : it is looked up in the globals.");
+        writer.println(twoSpaces + " */");
+        writer.println(twoSpaces + "public static final int GLOBAL = -1;");
+        writer.println();
+      }
 
       defineVisitor(writer, baseName, types);
 
       for (String type : types) {
         String className = type.split(":")[0].trim();
         String fields = type.split(":")[1].trim();
-        defineType(writer, baseName, className, fields);
+        writer.println();
+        defineType(writer, baseName, className, fields,
+                resolvable.contains(className), cached.get(className), loops.contains(className),
+                declaring.contains(className), scoping.contains(className));
       }
 
       writer.println();
-      writer.println(twoSpaces + "abstract <R> R accept(Visitor<R> visitor);");
+      writer.println();
+      writer.println(twoSpaces + "public abstract <R> R accept(Visitor<R> visitor);");
 
       writer.println("}");
     }
@@ -55,25 +112,31 @@ public class GenerateAst {
   private static void defineVisitor(PrintWriter writer,
                                     String baseName,
                                     List<String> types) {
-    writer.println(twoSpaces + "interface Visitor<R> {");
+    writer.println(twoSpaces + "public interface Visitor<R> {");
     for (String type : types) {
       String typeName = type.split(":")[0].trim();
+      writer.println();
       writer.println(fourSpaces + "R visit" + typeName + baseName + "(" +
-              typeName + " " + baseName.toLowerCase()  +");");
+              typeName + " " + baseName.toLowerCase() + ");");
     }
-    writer.println("}");
+    writer.println(twoSpaces + "}");
   }
 
   private static void defineType(PrintWriter writer,
                                  String baseName,
                                  String className,
-                                 String fields) {
+                                 String fields,
+                                 boolean resolvable,
+                                 String cache,
+                                 boolean loop,
+                                 boolean declaring,
+                                 boolean scoping) {
     writer.println(
-            twoSpaces + "static class " + className +
+            twoSpaces + "public static class " + className +
             " extends " + baseName + " {");
 
-    writer.println(fourSpaces + className + "(" + fields + ") {");
-    String[] fieldsArr = fields.split(", ");
+    String[] fieldsArr = fields.isEmpty() ? new String[0] : fields.split(", ");
+    writer.println(fourSpaces + "public " + className + "(" + fields + ") {");
     for (String field : fieldsArr) {
       String name = field.split(" ")[1];
       writer.println(fourSpaces + twoSpaces + "this." + name + " = " + name + ";");
@@ -82,14 +145,74 @@ public class GenerateAst {
 
     writer.println();
     writer.println(fourSpaces + "@Override");
-    writer.println(fourSpaces + "<R> R accept(Visitor<R> visitor) {");
-    writer.println(fourSpaces + "return visitor.visit" +
+    writer.println(fourSpaces + "public <R> R accept(Visitor<R> visitor) {");
+    writer.println(fourSpaces + twoSpaces + "return visitor.visit" +
             className + baseName + "(this);");
     writer.println(fourSpaces + "}");
 
+    if (fieldsArr.length > 0) writer.println();
     for (String field : fieldsArr) {
-      writer.println(fourSpaces + "final " + field + ";");
+      writer.println(fourSpaces + "public final " + field + ";");
     }
+    if (resolvable) defineResolution(writer);
+    if (cache != null) defineCache(writer, cache);
+    if (loop) defineLoopAnalysis(writer);
+    if (declaring) defineDeclaration(writer);
+    if (scoping) defineScope(writer, className.equals("Block"));
     writer.println(twoSpaces + "}");
   }
+
+  /**
+   * Resolution results live on the node itself, so the interpreter needs no side table to find a variable.
+   */
+  private static void defineResolution(PrintWriter writer) {
+    writer.println();
+    writer.println(fourSpaces + "//Set by the Resolver : scopes to walk up, and the variable's slot in that scope");
+    writer.println(fourSpaces + "public int depth = GLOBAL;");
+    writer.println(fourSpaces + "public int slot;");
+  }
+
+  /**
+   * The tree-walker caches what a property or global access found on the node itself.
+   */
+  private static void defineCache(PrintWriter writer, String cache) {
+    writer.println();
+    if (cache.equals("PropertyCache")) {
+      writer.println(fourSpaces + "//Used by the Interpreter : the shape of the instances last seen here and the property's slot");
+    } else {
+      writer.println(fourSpaces + "//Used by the Interpreter, when the variable is global : its slot in the global scope");
+    }
+    writer.println(fourSpaces + "public final " + cache + " cache = new " + cache + "();");
+  }
+
+  /**
+   * What the Resolver proves about a loop lets the engines run its iterations with less allocation.
+   */
+  private static void defineLoopAnalysis(PrintWriter writer) {
+    writer.println();
+    writer.println(fourSpaces + "//Set by the Resolver : 'var i = a; i < b; i = i + c' where only the increment assigns i");
+    writer.println(fourSpaces + "public boolean counted;");
+  }
+
+  /**
+   * Locals are defined at a fixed slot, so blocks sharing their enclosing scope can run any number of times.
+   */
+  private static void defineDeclaration(PrintWriter writer) {
+    writer.println();
+    writer.println(fourSpaces + "//Set by the Resolver : slot of the declared variable in its scope, -1 for a global");
+    writer.println(fourSpaces + "public int slot = -1;");
+  }
+
+  /**
+   * Only blocks whose locals a closure may capture get an Environment of their own.
+   */
+  private static void defineScope(PrintWriter writer, boolean block) {
+    writer.println();
+    if (block) {
+      writer.println(fourSpaces + "//Set by the Resolver : no closure can capture its locals, they take slots of the enclosing scope");
+      writer.println(fourSpaces + "public boolean flat;");
+    }
+    writer.println(fourSpaces + "//Set by the Resolver : slots of the scope, those of the blocks flattened into it included");
+    writer.println(fourSpaces + "public int size;");
+  }
 }
@@ -4,6 +4,9 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
 
 @SpringBootTest
 class LoxTest {
@@ -89,4 +92,83 @@ class LoxTest {
   void testBasicMethodInheritance_RunFromFile() throws IOException {
     Lox.main("C:\\Users\\rkierbel\\IdeaProjects\\jlox\\src\\main\\resources\\basicMethodInheritance.txt");
   }
+
+  @Test
+  void testFibFunction_RunWithVm() throws IOException {
+    Lox.main("--engine=vm", "src/main/resources/fibFunction.txt");
+  }
+
+  @Test
+  void testBasicOverride_RunWithVm() throws IOException {
+    Lox.main("--engine=vm", "src/main/resources/basicOverride.txt");
+  }
+
+  @Test
+  void testFibFunction_RunWithClosureCompiler() throws IOException {
+    Lox.main("--engine=closure", "src/main/resources/fibFunction.txt");
+  }
+
+  @Test
+  void testBasicOverride_CompileEveryFunction() throws IOException {
+    Lox.main("--jit-threshold=1", "src/main/resources/basicOverride.txt");
+  }
+
+  @Test
+  void testPolymorphicCalls_CompileEveryFunction() throws IOException {
+    Lox.main("--jit-threshold=1", "src/main/resources/polymorphicCalls.txt");
+  }
+
+  @Test
+  void testConstantFolding() throws IOException {
+    Lox.main("src/main/resources/constantFolding.txt");
+  }
+
+  @Test
+  void testCounterFunction_RunOnVm() throws IOException {
+    Lox.main("--engine=vm", "src/main/resources/counterFunction.txt");
+  }
+
+  @Test
+  void testInstanceShapes_RunWithClosureCompiler() throws IOException {
+    Lox.main("--engine=closure", "src/main/resources/instanceShapes.txt");
+  }
+
+  @Test
+  void testMultiLevelInheritanceOverride() throws IOException {
+    Lox.main("src/main/resources/multiLevelInheritanceOverride.txt");
+  }
+
+  @Test
+  void testDeepRecursion_RunOnVm() throws IOException {
+    Lox.main("--engine=vm", "src/main/resources/deepRecursion.txt");
+  }
+
+  @Test
+  void testForLoops() throws IOException {
+    Lox.main("src/main/resources/forLoops.txt");
+  }
+
+  @Test
+  void testBlockScopes() throws IOException {
+    Lox.main("src/main/resources/blockScopes.txt");
+  }
+
+  @Test
+  void testGlobalsDeclaredAfterUse() throws IOException {
+    Lox.main("src/main/resources/lateGlobals.txt");
+  }
+
+  @Test
+  void testInternedNames() throws IOException {
+    Lox.main("src/main/resources/symbols.txt");
+  }
+
+  @Test
+  void testFibFunction_CompileAheadOfTime() throws Exception {
+    Loxc.main("src/main/resources/fibFunction.txt", "target/FibFunction.jar");
+    URL jar = Paths.get("target/FibFunction.jar").toUri().toURL();
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{jar}, getClass().getClassLoader())) {
+      loader.loadClass("FibFunction").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+    }
+  }
 }